@@ -40,7 +40,9 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/blog/hot",
                         "/shop/**",
                         "/shop-type/**",
-                        "/voucher/**"
+                        "/voucher/**",
+                        "/admin/metrics",
+                        "/admin/ready"
                 );
     }
 }
@@ -0,0 +1,167 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.CacheWarmer;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.RedisScriptRegistry;
+import com.hmdp.utils.SeckillStockReconciler;
+import com.hmdp.utils.ShopGeoSync;
+import com.hmdp.utils.ShopRanking;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 运维相关的查询接口
+ * </p>
+ */
+@RestController
+@RequestMapping("/admin")
+public class AdminController {
+
+    @Resource
+    private RedisScriptRegistry redisScriptRegistry;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private SeckillStockReconciler seckillStockReconciler;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private CacheWarmer cacheWarmer;
+
+    @Resource
+    private ApplicationAvailability applicationAvailability;
+
+    @Resource
+    private ShopGeoSync shopGeoSync;
+
+    @Resource
+    private ShopRanking shopRanking;
+
+    /**
+     * 查询各Lua脚本的sha、调用次数、NOSCRIPT次数和耗时
+     * @return 脚本名 -> 统计信息
+     */
+    @GetMapping("/scripts")
+    public Result queryScriptStats() {
+        return Result.ok(redisScriptRegistry.stats());
+    }
+
+    /**
+     * 查询订单消息队列的pending-list深度、最老消息年龄、死信数量
+     * @return 统计信息
+     */
+    @GetMapping("/order-stream")
+    public Result queryOrderStreamStats() {
+        return voucherOrderService.queryOrderStreamStats();
+    }
+
+    /**
+     * 秒杀券补货（需要登录）
+     * @param id 优惠券id
+     * @param count 补货数量
+     * @return 无
+     */
+    @PutMapping("/seckill/{id}/stock")
+    public Result addSeckillStock(@PathVariable("id") Long id, @RequestParam("count") Integer count) {
+        return voucherService.addSeckillStock(id, count);
+    }
+
+    /**
+     * 查询最近一次秒杀库存对账结果
+     * @return 优惠券id -> 对账结果
+     */
+    @GetMapping("/seckill/reconcile")
+    public Result queryReconcileResults() {
+        return Result.ok(seckillStockReconciler.results());
+    }
+
+    /**
+     * 查询当前滑动窗口内的热key
+     * @param n 返回前n个
+     * @return 热key及窗口内访问次数估计值，按估计值降序
+     */
+    @GetMapping("/hot-keys")
+    public Result queryHotKeys(@RequestParam(value = "n", defaultValue = "20") Integer n) {
+        return Result.ok(hotKeyDetector.top(n));
+    }
+
+    /**
+     * 查询逻辑过期key的提前刷新统计
+     * @return 登记key数、重建次数、被丢弃次数、平均加载耗时等
+     */
+    @GetMapping("/cache/refresh")
+    public Result queryCacheRefreshStats() {
+        return Result.ok(cacheClient.refreshStats());
+    }
+
+    /**
+     * 按key前缀的缓存指标（Prometheus 文本格式，供采集，不需要登录）
+     * @return 命中/未命中/空值/重建/加锁计数，查询和加载耗时直方图
+     */
+    @GetMapping(value = "/metrics", produces = "text/plain; version=0.0.4; charset=utf-8")
+    public String scrapeCacheMetrics() {
+        return cacheMetrics.scrape();
+    }
+
+    /**
+     * 就绪检查：缓存预热完成前返回503，负载均衡据此决定是否转发流量（不需要登录）
+     * @return 预热统计
+     */
+    @GetMapping("/ready")
+    public ResponseEntity<Result> ready() {
+        boolean ready = applicationAvailability.getReadinessState() == ReadinessState.ACCEPTING_TRAFFIC;
+        Result result = ready ? Result.ok(cacheWarmer.stats()) : Result.fail("缓存预热中");
+        return ResponseEntity.status(ready ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE).body(result);
+    }
+
+    /**
+     * 立即全量重建redis中的商铺GEO索引（其它节点正在重建时直接返回）
+     * @return 最近一次成功重建的统计
+     */
+    @PostMapping("/shop-geo/rebuild")
+    public Result rebuildShopGeo() {
+        shopGeoSync.rebuild();
+        return Result.ok(shopGeoSync.stats());
+    }
+
+    /**
+     * 立即全量重建商铺排行榜（其它节点正在重建时直接返回）
+     * @return 本节点最近一次成功重建的统计
+     */
+    @PostMapping("/shop-rank/rebuild")
+    public Result rebuildShopRank() {
+        shopRanking.rebuild();
+        return Result.ok(shopRanking.stats());
+    }
+}
@@ -1,12 +1,12 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.ShopChangeBroadcaster;
+import com.hmdp.utils.ShopGeoSync;
+import com.hmdp.utils.ShopRanking;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -26,6 +26,15 @@ public class ShopController {
     @Resource
     public IShopService shopService;
 
+    @Resource
+    private ShopChangeBroadcaster shopChangeBroadcaster;
+
+    @Resource
+    private ShopGeoSync shopGeoSync;
+
+    @Resource
+    private ShopRanking shopRanking;
+
     /**
      * 根据id查询商铺信息
      * @param id 商铺id
@@ -46,6 +55,12 @@ public class ShopController {
     public Result saveShop(@RequestBody Shop shop) {
         // 写入数据库
         shopService.save(shop);
+        // 广播商铺变更，各节点把新店铺加入布隆过滤器和内存索引
+        shopChangeBroadcaster.publish(shop.getId());
+        // 加入redis的GEO索引，附近商铺查询才能查到
+        shopGeoSync.sync(shop.getId(), null);
+        // 加入排行榜
+        shopRanking.sync(shop.getId(), null);
         // 返回店铺id
         return Result.ok(shop.getId());
     }
@@ -77,6 +92,40 @@ public class ShopController {
         return shopService.queryShopByType(typeId, current, x, y);
     }
 
+    /**
+     * 根据商铺类型按距离滚动查询商铺（游标分页）
+     * @param typeId 商铺类型
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return 商铺列表和下一页的游标，没有下一页时不返回游标
+     */
+    @GetMapping("/of/type/scroll")
+    public Result queryShopByTypeScroll(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y,
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) {
+        return shopService.queryShopByTypeScroll(typeId, x, y, cursor);
+    }
+
+    /**
+     * 根据商铺类型查询排行榜（滚动分页）
+     * @param typeId 商铺类型
+     * @param sortBy 排序指标：score 评分、sold 销量、comments 评论数
+     * @param max 上一页返回的 minTime（本页的最大指标值），第一页不传
+     * @param offset 上一页返回的 offset
+     * @return 商铺列表、本页最小指标值、偏移量
+     */
+    @GetMapping("/of/type/rank")
+    public Result queryShopByRank(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam(value = "sortBy", defaultValue = ShopRanking.SCORE) String sortBy,
+            @RequestParam(value = "max", required = false) Long max,
+            @RequestParam(value = "offset", defaultValue = "0") Integer offset
+    ) {
+        return shopService.queryShopByRank(typeId, sortBy, max, offset);
+    }
+
     /**
      * 根据商铺名称关键字分页查询商铺信息
      * @param name 商铺名称关键字
@@ -88,11 +137,6 @@ public class ShopController {
             @RequestParam(value = "name", required = false) String name,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryShopByName(name, current);
     }
 }
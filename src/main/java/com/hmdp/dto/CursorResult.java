@@ -0,0 +1,20 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+*@Description: 游标分页返回对象，cursor 为空表示没有下一页
+*@Param:
+*@return:
+*/
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CursorResult {
+    private List<?> list;
+    private String cursor;
+}
@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,9 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+    *@Description: 一条多行 INSERT IGNORE 写入订单，违反主键或唯一索引 uk_user_voucher(user_id, voucher_id) 的行被忽略
+    *@return: 实际插入的行数
+    */
+    int insertBatch(@Param("orders") List<VoucherOrder> orders);
 }
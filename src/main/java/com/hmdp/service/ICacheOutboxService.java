@@ -0,0 +1,23 @@
+package com.hmdp.service;
+
+import com.hmdp.entity.CacheOutbox;
+import com.baomidou.mybatisplus.extension.service.IService;
+
+/**
+ * <p>
+ *  缓存失效发件箱 服务类
+ * </p>
+ */
+public interface ICacheOutboxService extends IService<CacheOutbox> {
+
+    /**
+     * 在当前事务中登记缓存失效，事务提交后删除缓存，并由轮询任务延迟再删一次（失败重试）
+     * @param cacheKey 缓存key
+     */
+    void invalidateAfterCommit(String cacheKey);
+
+    /**
+     * 处理到期的发件箱记录
+     */
+    void pollOutbox();
+}
@@ -13,4 +13,24 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
+    /**
+    *@Description: 查询秒杀券的生效/失效时间（本地缓存，未命中时查数据库）
+    *@Param: [voucherId]
+    *@return: com.hmdp.entity.SeckillVoucher 只包含 voucherId、beginTime、endTime，不存在时返回null
+    */
+    SeckillVoucher queryTimeWindow(Long voucherId);
+
+    /**
+    *@Description: 把秒杀券的时间信息写入本地缓存（新增秒杀券时预热）
+    *@Param: [seckillVoucher]
+    *@return: void
+    */
+    void cacheTimeWindow(SeckillVoucher seckillVoucher);
+
+    /**
+    *@Description: 删除本地缓存的秒杀券时间信息
+    *@Param: [voucherId]
+    *@return: void
+    */
+    void evictTimeWindow(Long voucherId);
 }
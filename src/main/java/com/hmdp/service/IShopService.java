@@ -29,4 +29,25 @@ public interface IShopService extends IService<Shop> {
     Result updateShop(Shop shop);
 
     Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+
+    /**
+    *@Description: 按距离滚动查询附近商铺（游标分页），第一页不传cursor，之后传上一页返回的cursor
+    *@Param: [typeId, x, y, cursor]
+    *@return: com.hmdp.dto.Result
+    */
+    Result queryShopByTypeScroll(Integer typeId, Double x, Double y, String cursor);
+
+    /**
+    *@Description: 根据商铺名称关键字分页查询（走内存倒排索引，按评分、销量排序）
+    *@Param: [name, current]
+    *@return: com.hmdp.dto.Result
+    */
+    Result queryShopByName(String name, Integer current);
+
+    /**
+    *@Description: 按类型查询排行榜（评分、销量、评论数），滚动分页
+    *@Param: [typeId, sortBy score/sold/comments, max 上一页的最小指标值（第一页不传）, offset 上一页中指标值等于最小值的个数]
+    *@return: com.hmdp.dto.Result  List<Shop>：商铺列表 minTime：本页最小指标值 offset：偏移量
+    */
+    Result queryShopByRank(Integer typeId, String sortBy, Long max, Integer offset);
 }
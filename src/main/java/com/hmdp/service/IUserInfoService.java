@@ -13,4 +13,10 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IUserInfoService extends IService<UserInfo> {
 
+    /**
+    *@Description: 查询用户详情（缓存），不返回创建、更新时间
+    *@Param: [userId]
+    *@return: com.hmdp.entity.UserInfo 没有详情时返回null
+    */
+    UserInfo queryInfo(Long userId);
 }
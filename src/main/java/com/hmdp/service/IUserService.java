@@ -3,6 +3,7 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
@@ -27,4 +28,11 @@ public interface IUserService extends IService<User> {
     Result logout();
 
     Result signCount();
+
+    /**
+    *@Description: 按id查询用户的公开信息（缓存，与博客列表批量查询用户共用 cache:user:dto:{id}）
+    *@Param: [id]
+    *@return: com.hmdp.dto.UserDTO 不存在时返回null
+    */
+    UserDTO queryUserDTO(Long id);
 }
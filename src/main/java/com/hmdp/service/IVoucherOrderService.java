@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -22,4 +24,18 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
     Result seckKillVoucher(Long voucherId);
 
     Result createVoucherOrder(Long voucherId);
+
+    /**
+    *@Description: 批量创建订单（消息队列消费者调用）
+    *@Param: [voucherOrders]
+    *@return: void
+    */
+    void createVoucherOrderBatch(List<VoucherOrder> voucherOrders);
+
+    /**
+    *@Description: 订单消息队列的pending-list深度、最老消息年龄、死信数量等统计
+    *@Param: []
+    *@return: com.hmdp.dto.Result
+    */
+    Result queryOrderStreamStats();
 }
@@ -14,7 +14,19 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IVoucherService extends IService<Voucher> {
 
-    Result queryVoucherOfShop(Long shopId);
+    /**
+    *@Description: 查询店铺的优惠券列表（缓存）
+    *@Param: [shopId]
+    *@return: com.hmdp.entity.Voucher[] 缓存按返回类型反序列化，用数组保留元素类型
+    */
+    Voucher[] queryVoucherOfShop(Long shopId);
 
     void addSeckillVoucher(Voucher voucher);
+
+    /**
+    *@Description: 秒杀券补货（数据库、redis同时加库存，并清除售罄标记）
+    *@Param: [voucherId, count 补货数量]
+    *@return: com.hmdp.dto.Result
+    */
+    Result addSeckillStock(Long voucherId, Integer count);
 }
@@ -16,19 +16,27 @@ import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidate;
+import com.hmdp.utils.Cached;
+import com.hmdp.utils.HotKeyDetector;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 
+import java.io.Serializable;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -52,6 +60,17 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Autowired
     private IFollowService followService;
 
+    @Autowired
+    private HotKeyDetector hotKeyDetector;
+
+    @Autowired
+    private CacheClient cacheClient;
+
+    // 通过代理调用本类的缓存方法
+    @Lazy
+    @Autowired
+    private IBlogService proxy;
+
     @Override
     public Result saveBlog(Blog blog) {
         // 获取登录用户
@@ -86,21 +105,21 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog ->{
-            queryBlogUser(blog);
-            isBlogLiked(blog);
-        });
+        // 查询用户（批量）
+        queryBlogUser(records);
+        records.forEach(this::isBlogLiked);
         return Result.ok(records);
     }
 
     @Override
     public Result queryBlogById(Long id) {
-        Blog blog = getById(id);
-        if(blog == null){
+        Blog cached = proxy.getById(id);
+        if(cached == null){
             return Result.fail("博客不存在！");
         }
-        queryBlogUser(blog);
+        // 缓存未命中时同一个key的并发请求共享加载结果，复制后再设置作者、是否点赞等字段
+        Blog blog = BeanUtil.copyProperties(cached, Blog.class);
+        queryBlogUser(Collections.singletonList(blog));
         // 查询blog是否被点赞了
         isBlogLiked(blog);
         return Result.ok(blog);
@@ -119,27 +138,50 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             // 用户未登录，无需查询是否点赞
             return;
         }
+        hotKeyDetector.record(key);
         Double score = stringRedisTemplate.opsForZSet().score(key, user.getId().toString());
         blog.setIsLike(score != null);
     }
 
     /**
-     *@Description: 查询博客的用户信息
-     *@Param: [blog]
+     *@Description: 批量查询博客的用户信息：一次MGET查缓存，未命中的一次批量查数据库
+     *@Param: [blogs]
      *@return: void
      */
-    private void queryBlogUser(Blog blog) {
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+    private void queryBlogUser(List<Blog> blogs) {
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).distinct().collect(Collectors.toList());
+        List<UserDTO> users = cacheClient.queryBatchWithPassThrough(RedisConstants.CACHE_USER_DTO_KEY, userIds, UserDTO.class,
+                RedisConstants.CACHE_USER_TTL, TimeUnit.MINUTES,
+                ids -> userService.listByIds(ids).stream()
+                        .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+                        .collect(Collectors.toList()),
+                UserDTO::getId);
+        Map<Long, UserDTO> userMap = users.stream().collect(Collectors.toMap(UserDTO::getId, user -> user));
+        for (Blog blog : blogs) {
+            UserDTO user = userMap.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
     }
 
+    /**
+    *@Description: 按id查询博客（缓存，不开本地缓存，热key也不放入热点本地缓存：调用方会设置作者、是否点赞等字段）
+    */
     @Override
+    @Cached(key = RedisConstants.CACHE_BLOG_KEY + "#{#id}", hotLocal = false)
+    public Blog getById(Serializable id) {
+        return super.getById(id);
+    }
+
+    @Override
+    @CacheInvalidate(key = RedisConstants.CACHE_BLOG_KEY + "#{#id}")
     public Result likeBlog(Long id) {
         String key = RedisConstants.BLOG_LIKED_KEY+id;
         //判断当前登录用户是否点赞了
         UserDTO user = UserHolder.getUser();
+        hotKeyDetector.record(key);
         Double score = stringRedisTemplate.opsForZSet().score(key, user.getId().toString());
         if(score == null){
             //未点赞，可以点赞
@@ -208,11 +250,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         //根据id查blog
         String idstr = StrUtil.join(",", ids);
         List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id," + idstr + ")").list();
-        blogs.forEach(blog -> {
-            queryBlogUser(blog);
-            // 查询blog是否被点赞了
-            isBlogLiked(blog);}
-        );
+        queryBlogUser(blogs);
+        // 查询blog是否被点赞了
+        blogs.forEach(this::isBlogLiked);
         return Result.ok(new ScrollResult(blogs,minTime,offsetNew));
     }
 }
\ No newline at end of file
@@ -0,0 +1,128 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.entity.CacheOutbox;
+import com.hmdp.mapper.CacheOutboxMapper;
+import com.hmdp.service.ICacheOutboxService;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.ILock;
+import com.hmdp.utils.RedisScriptRegistry;
+import com.hmdp.utils.SimpleRedisLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * <p>
+ *  缓存失效发件箱 服务实现类
+ *  1. 业务事务中写入发件箱记录（next_time = 提交时间 + 延迟），事务回滚则记录也不存在
+ *  2. 事务提交后立即删除一次缓存（redis + 所有节点的本地缓存），失败不影响业务
+ *  3. 轮询任务在延迟之后再删一次（延迟双删，清掉提交前后被并发读回填的旧值），成功后删除记录，失败按指数退避重试
+ * </p>
+ */
+@Slf4j
+@Service
+public class CacheOutboxServiceImpl extends ServiceImpl<CacheOutboxMapper, CacheOutbox> implements ICacheOutboxService {
+
+    private static final String LOCK_NAME = "cache:outbox";
+
+    // 延迟双删的延迟时间
+    @Value("${hmdp.cache.outbox.delay-millis:1000}")
+    private long delayMillis;
+
+    @Value("${hmdp.cache.outbox.batch-size:100}")
+    private int batchSize;
+
+    @Value("${hmdp.cache.outbox.max-backoff-seconds:300}")
+    private long maxBackoffSeconds;
+
+    // 失败次数超过该值时打错误日志（仍然继续重试）
+    @Value("${hmdp.cache.outbox.alert-retries:10}")
+    private int alertRetries;
+
+    @Autowired
+    private CacheClient cacheClient;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisScriptRegistry redisScriptRegistry;
+
+    @Override
+    public void invalidateAfterCommit(String cacheKey) {
+        CacheOutbox outbox = new CacheOutbox()
+                .setCacheKey(cacheKey)
+                .setRetries(0)
+                .setNextTime(LocalDateTime.now().plusNanos(delayMillis * 1_000_000));
+        save(outbox);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            deleteQuietly(cacheKey);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                deleteQuietly(cacheKey);
+            }
+        });
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${hmdp.cache.outbox.poll-interval:500}")
+    public void pollOutbox() {
+        // 多个节点同时只有一个在处理
+        ILock lock = new SimpleRedisLock(LOCK_NAME, stringRedisTemplate, redisScriptRegistry);
+        try {
+            if (!lock.tryLock(60)) {
+                return;
+            }
+        } catch (Exception e) {
+            // redis不可用，下次再试
+            return;
+        }
+        try {
+            List<CacheOutbox> list = query()
+                    .le("next_time", LocalDateTime.now())
+                    .orderByAsc("id")
+                    .last("LIMIT " + batchSize)
+                    .list();
+            for (CacheOutbox outbox : list) {
+                try {
+                    cacheClient.delete(outbox.getCacheKey());
+                    removeById(outbox.getId());
+                } catch (Exception e) {
+                    int retries = outbox.getRetries() + 1;
+                    long backoff = Math.min(maxBackoffSeconds, 1L << Math.min(retries, 20));
+                    update().set("retries", retries)
+                            .set("next_time", LocalDateTime.now().plusSeconds(backoff))
+                            .eq("id", outbox.getId())
+                            .update();
+                    if (retries >= alertRetries) {
+                        log.error("缓存失效多次失败，key:{}，失败次数:{}", outbox.getCacheKey(), retries, e);
+                    } else {
+                        log.warn("缓存失效失败，{}秒后重试，key:{}", backoff, outbox.getCacheKey(), e);
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void deleteQuietly(String cacheKey) {
+        try {
+            cacheClient.delete(cacheKey);
+        } catch (Exception e) {
+            log.warn("提交后删除缓存失败，等待发件箱重试，key:{}", cacheKey, e);
+        }
+    }
+}
@@ -1,11 +1,17 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.mapper.SeckillVoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import java.util.concurrent.TimeUnit;
+
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务实现类
@@ -17,4 +23,61 @@ import org.springframework.stereotype.Service;
 @Service
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
 
+    /**
+    *@Description: 本地缓存的秒杀券个数上限，超过后淘汰最久未使用的
+    */
+    @Value("${hmdp.seckill.time-window.cache-size:10000}")
+    private int cacheSize;
+
+    /**
+    *@Description: 本地缓存的有效期（秒），过期后重新查库，已结束的券不会一直占着内存
+    */
+    @Value("${hmdp.seckill.time-window.cache-ttl-seconds:600}")
+    private long cacheTtlSeconds;
+
+    /**
+    *@Description: 秒杀券时间窗口的本地缓存（begin_time/end_time 创建后不会变，库存是变化的所以不缓存）
+    */
+    private Cache<Long, SeckillVoucher> timeWindowCache;
+
+    @PostConstruct
+    private void init(){
+        timeWindowCache = CacheUtil.newLRUCache(cacheSize, TimeUnit.SECONDS.toMillis(cacheTtlSeconds));
+    }
+
+    @Override
+    public SeckillVoucher queryTimeWindow(Long voucherId) {
+        // 1. 查本地缓存
+        SeckillVoucher cached = timeWindowCache.get(voucherId, false);
+        if (cached != null) {
+            return cached;
+        }
+        // 2. 未命中，只查时间字段
+        SeckillVoucher voucher = query()
+                .select("voucher_id", "begin_time", "end_time")
+                .eq("voucher_id", voucherId)
+                .one();
+        if (voucher == null) {
+            // 不存在的券不缓存，避免被随机id撑大
+            return null;
+        }
+        // 3. 写入本地缓存
+        cacheTimeWindow(voucher);
+        return voucher;
+    }
+
+    @Override
+    public void cacheTimeWindow(SeckillVoucher seckillVoucher) {
+        // 只保留时间字段，避免调用方误用缓存里的库存
+        SeckillVoucher timeWindow = new SeckillVoucher()
+                .setVoucherId(seckillVoucher.getVoucherId())
+                .setBeginTime(seckillVoucher.getBeginTime())
+                .setEndTime(seckillVoucher.getEndTime());
+        timeWindowCache.put(timeWindow.getVoucherId(), timeWindow);
+    }
+
+    @Override
+    public void evictTimeWindow(Long voucherId) {
+        timeWindowCache.remove(voucherId);
+    }
 }
@@ -1,32 +1,47 @@
 package com.hmdp.service.impl;
 
 import ch.qos.logback.core.pattern.color.RedCompositeConverter;
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
+import com.hmdp.service.ICacheOutboxService;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.JacksonCacheCodec;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopChangeBroadcaster;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopGeoSync;
+import com.hmdp.utils.ShopIdBloomFilter;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.ShopRanking;
 import com.hmdp.utils.SystemConstants;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
 import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.Executor;
@@ -54,12 +69,48 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Autowired
     private CacheClient cacheClient;
 
+    @Autowired
+    private ShopIdBloomFilter shopIdBloomFilter;
+
+    @Autowired
+    private ICacheOutboxService cacheOutboxService;
+
+    @Autowired
+    private ShopGeoIndex shopGeoIndex;
+
+    @Autowired
+    private ShopChangeBroadcaster shopChangeBroadcaster;
+
+    @Autowired
+    private ShopGeoSync shopGeoSync;
+
+    @Autowired
+    private ShopNameIndex shopNameIndex;
+
+    @Autowired
+    private ShopRanking shopRanking;
+
+    // 空间索引未就绪时，游标分页从redis最多查出的结果数
+    @Value("${hmdp.shop.geo.cursor-max-results:500}")
+    private int cursorMaxResults;
+
+    @PostConstruct
+    private void init(){
+        // 商铺详情开启本地缓存
+        cacheClient.enableLocalCache(RedisConstants.CACHE_SHOP_KEY, RedisConstants.CACHE_SHOP_LOCAL_SIZE, RedisConstants.CACHE_SHOP_LOCAL_TTL, TimeUnit.SECONDS);
+        // 商铺详情是最热的key，用二进制编码减少体积和反序列化开销
+        cacheClient.useCodec(RedisConstants.CACHE_SHOP_KEY, JacksonCacheCodec.SMILE);
+    }
+
     @Override
     public Result queryById(Long id) {
-        //缓存穿透
-        Shop shop = cacheClient.queryWithPassThrough(RedisConstants.CACHE_SHOP_KEY, id, Shop.class, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES, (id2) -> getById(id2));
+        //布隆过滤器判断id一定不存在，直接返回，不写空值缓存也不查数据库
+        if (!shopIdBloomFilter.mightContain(id)) {
+            return Result.fail("店铺不存在!");
+        }
+        //互斥锁解决缓存击穿（同时缓存空值解决缓存穿透）
+        Shop shop = queryWithMutex(id);
 
-        //互斥锁解决缓存击穿
         if (shop == null) {
             return Result.fail("店铺不存在!");
         }
@@ -68,64 +119,11 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     }
 
 
-    //互斥锁解决缓存击穿
+    //互斥锁解决缓存击穿：本节点 single-flight + 跨节点redis互斥锁，没拿到锁的等待加载完成通知
     public Shop queryWithMutex(Long id){
-        String key = RedisConstants.CACHE_SHOP_KEY + id;
-        boolean isWait = true;
-        String lockKey = RedisConstants.LOCK_SHOP_KEY+id;
-        Shop shop = null;
-        //1,从redis查询商铺缓存
-        try {
-            while (isWait){
-                // 1. 从redis中查询商铺缓存(命中)
-                String cacheShopJson = stringRedisTemplate.opsForValue().get(key);
-                if (StrUtil.isNotBlank(cacheShopJson)){
-                    shop = JSONUtil.toBean(cacheShopJson, Shop.class);
-                    return shop;
-                }
-
-                //实现缓存重建
-                //1. 获取互斥锁
-                boolean isLock = tryLock(lockKey);
-                //2.判断是否获取成功
-                if(!isLock){
-                    //2.1 失败，则休眠并重试
-                    Thread.sleep(50);
-                }else {
-                    isWait = false;
-                }
-            }
-            //2.2 成功
-            //2.2.1 再次检查缓存，做doublecheck，防止是刚好前一个更新完缓存后放了锁，然后被你拿到了
-            String cacheShopJson = stringRedisTemplate.opsForValue().get(key);
-            if (StrUtil.isNotBlank(cacheShopJson)){
-                shop = JSONUtil.toBean(cacheShopJson, Shop.class);
-                unlock(lockKey);  //放锁
-                return shop;
-            }
-            //2.2.2 根据id查询数据库
-            shop = getById(id);
-            stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(shop), RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        } finally {
-            //释放互斥锁
-            unlock(lockKey);
-        }
-
-        //返回
-        return shop;
-
-    }
-
-    private boolean tryLock(String key){
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+        return cacheClient.queryWithMutex(RedisConstants.CACHE_SHOP_KEY, id, Shop.class, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES, this::getById);
     }
 
-    private void unlock(String key){
-        stringRedisTemplate.delete(key);
-    }
     @Override
     @Transactional
     public Result updateShop(Shop shop) {
@@ -133,19 +131,49 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (id == null){
             return Result.fail("Shop id is not null");
         }
+        //修改了类型时记下旧类型，用于从旧类型的GEO索引中移除
+        Long oldTypeId = null;
+        if (shop.getTypeId() != null) {
+            Shop old = getById(id);
+            oldTypeId = old == null ? null : old.getTypeId();
+        }
         //1,更新数据库
         updateById(shop);
-        //2.删除缓存
-        stringRedisTemplate.delete(RedisConstants.CACHE_SHOP_KEY + id);
+        //2.同一事务写入缓存失效发件箱，提交后删除缓存（redis + 所有节点的本地缓存），并延迟双删
+        cacheOutboxService.invalidateAfterCommit(RedisConstants.CACHE_SHOP_KEY + id);
+        //3.提交后广播商铺变更，各节点更新内存中的空间索引
+        shopChangeBroadcaster.publish(id);
+        //4.修改了类型或坐标时，提交后同步redis的GEO索引
+        if (shop.getTypeId() != null || shop.getX() != null || shop.getY() != null) {
+            shopGeoSync.sync(id, oldTypeId);
+        }
+        //5.修改了类型或评分、销量、评论数时，提交后更新排行榜
+        if (shop.getTypeId() != null || shop.getScore() != null || shop.getSold() != null || shop.getComments() != null) {
+            shopRanking.sync(id, oldTypeId);
+        }
 
         return Result.ok();
     }
 
     @Override
     public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
-        // 1.判断是否需要根据坐标查询
+        // 1.计算分页参数
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
+
+        // 2.判断是否需要根据坐标查询
         if (x == null || y == null) {
-            // 不需要坐标查询，按数据库查询
+            // 不需要坐标查询，按评分排行榜分页（ZREVRANGE），代替数据库 OFFSET 扫描
+            String key = ShopRanking.key(ShopRanking.SCORE, typeId.longValue());
+            Set<String> members = stringRedisTemplate.opsForZSet().reverseRange(key, from, end - 1);
+            if (members != null && !members.isEmpty()) {
+                return Result.ok(hydrate(members));
+            }
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+                // 没有下一页了
+                return Result.ok(Collections.emptyList());
+            }
+            // 排行榜还没建好，按数据库查询
             Page<Shop> page = query()
                     .eq("type_id", typeId)
                     .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
@@ -153,46 +181,203 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             return Result.ok(page.getRecords());
         }
 
-        // 2.计算分页参数
-        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
-        int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
+        // 3.按照距离排序、分页。结果：shopId、distance
+        List<ShopGeoIndex.Hit> hits = searchNearby(typeId, x, y, end);
+        if (hits.size() <= from) {
+            // 没有下一页了，结束
+            return Result.ok(Collections.emptyList());
+        }
+        // 4.截取 from ~ end的部分，根据id查询Shop
+        List<Shop> shops = hydrateWithDistance(hits.subList(from, hits.size()));
+        // 5.返回
+        return Result.ok(shops);
+    }
+
+    @Override
+    public Result queryShopByTypeScroll(Integer typeId, Double x, Double y, String cursor) {
+        int size = SystemConstants.DEFAULT_PAGE_SIZE;
+        // 1.第一页从请求的坐标开始；后续页从游标中的坐标、上一页最后一个商铺的（距离，id）之后继续
+        GeoCursor after;
+        if (StrUtil.isBlank(cursor)) {
+            if (x == null || y == null) {
+                return Result.fail("缺少坐标");
+            }
+            after = new GeoCursor(x, y, -1, 0);
+        } else {
+            after = decodeCursor(cursor);
+            if (after == null) {
+                return Result.fail("无效的游标");
+            }
+        }
+        // 2.多取一个判断是否还有下一页
+        List<ShopGeoIndex.Hit> hits = searchNearbyAfter(typeId, after, size + 1);
+        String next = null;
+        if (hits.size() > size) {
+            hits = hits.subList(0, size);
+            ShopGeoIndex.Hit last = hits.get(size - 1);
+            next = encodeCursor(new GeoCursor(after.x, after.y, last.getDistance(), last.getId()));
+        }
+        return Result.ok(new CursorResult(hydrateWithDistance(hits), next));
+    }
+
+    @Override
+    public Result queryShopByRank(Integer typeId, String sortBy, Long max, Integer offset) {
+        if (!ShopRanking.METRICS.contains(sortBy)) {
+            return Result.fail("不支持的排序方式");
+        }
+        String key = ShopRanking.key(sortBy, typeId.longValue());
+        //查询排行榜  ZREVRANGEBYSCORE key max 0 LIMIT offset count
+        double maxScore = max == null ? Double.POSITIVE_INFINITY : max;
+        Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet()
+                .reverseRangeByScoreWithScores(key, 0, maxScore, offset, SystemConstants.DEFAULT_PAGE_SIZE);
+        if (typedTuples == null || typedTuples.isEmpty()) {
+            return Result.ok();
+        }
+        //解析数据：shopId、minScore(本页最小的指标值)、offset 指标值等于最小值的元素个数
+        List<String> members = new ArrayList<>(typedTuples.size());
+        long minScore = Long.MIN_VALUE;
+        int offsetNew = 1;
+        for (ZSetOperations.TypedTuple<String> tuple : typedTuples) {
+            members.add(tuple.getValue());
+            long score = tuple.getScore().longValue();
+            if (score == minScore) offsetNew++;
+            else {
+                minScore = score;
+                offsetNew = 1;
+            }
+        }
+        //下一页的max等于本页最小值时，要跳过已经返回的同分元素（包括上一页跳过的）
+        if (max != null && minScore == max) {
+            offsetNew += offset;
+        }
+        return Result.ok(new ScrollResult(hydrate(members), minScore, offsetNew));
+    }
+
+    //按排行榜顺序批量查询商铺（查缓存，未命中的一次查数据库）
+    private List<Shop> hydrate(Collection<String> members){
+        List<Long> ids = new ArrayList<>(members.size());
+        for (String member : members) {
+            ids.add(Long.valueOf(member));
+        }
+        return cacheClient.queryBatchWithPassThrough(RedisConstants.CACHE_SHOP_KEY, ids, Shop.class,
+                RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES, this::listByIds, Shop::getId);
+    }
+
+    @Override
+    public Result queryShopByName(String name, Integer current) {
+        // 1.没有关键字或索引还没建好时按数据库查询，排序与索引一致
+        if (StrUtil.isBlank(name) || !shopNameIndex.isReady()) {
+            Page<Shop> page = query()
+                    .like(StrUtil.isNotBlank(name), "name", name)
+                    .orderByDesc("score", "sold")
+                    .orderByAsc("id")
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+            return Result.ok(page.getRecords());
+        }
+        // 2.倒排索引查出当前页的id（已按评分、销量排序）
+        int from = (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+        List<Long> ids = shopNameIndex.search(name, from, SystemConstants.MAX_PAGE_SIZE);
+        if (ids.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 3.批量查缓存，未命中的一次查数据库，保持排序
+        List<Shop> shops = cacheClient.queryBatchWithPassThrough(RedisConstants.CACHE_SHOP_KEY, ids, Shop.class,
+                RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES, this::listByIds, Shop::getId);
+        return Result.ok(shops);
+    }
 
-        // 3.查询redis、按照距离排序、分页。结果：shopId、distance
+    //按距离升序查询附近的商铺，优先查本地空间索引，索引未就绪时查redis
+    private List<ShopGeoIndex.Hit> searchNearby(Integer typeId, Double x, Double y, int limit){
+        if (shopGeoIndex.isReady()) {
+            return shopGeoIndex.radius(typeId.longValue(), x, y, 5000, limit);
+        }
         String key = SHOP_GEO_KEY + typeId;
         GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo() // GEOSEARCH key BYLONLAT x y BYRADIUS 10 WITHDISTANCE
                 .search(
                         key,
                         GeoReference.fromCoordinate(x, y),
                         new Distance(5000),
-                        RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().limit(end)
+                        RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().limit(limit)
                 );
-        // 4.解析出id
         if (results == null) {
-            return Result.ok(Collections.emptyList());
+            return Collections.emptyList();
         }
-        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list = results.getContent();
-        if (list.size() <= from) {
-            // 没有下一页了，结束
-            return Result.ok(Collections.emptyList());
+        List<ShopGeoIndex.Hit> hits = new ArrayList<>(results.getContent().size());
+        for (GeoResult<RedisGeoCommands.GeoLocation<String>> result : results.getContent()) {
+            hits.add(new ShopGeoIndex.Hit(Long.parseLong(result.getContent().getName()), result.getDistance().getValue()));
         }
-        // 4.1.截取 from ~ end的部分
-        List<Long> ids = new ArrayList<>(list.size());
-        Map<String, Distance> distanceMap = new HashMap<>(list.size());
-        list.stream().skip(from).forEach(result -> {
-            // 4.2.获取店铺id
-            String shopIdStr = result.getContent().getName();
-            ids.add(Long.valueOf(shopIdStr));
-            // 4.3.获取距离
-            Distance distance = result.getDistance();
-            distanceMap.put(shopIdStr, distance);
-        });
-        // 5.根据id查询Shop
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
-        for (Shop shop : shops) {
-            shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
-        }
-        // 6.返回
-        return Result.ok(shops);
+        return hits;
+    }
+
+    //按（距离，id）升序查询游标之后的附近商铺；索引未就绪时查redis前 cursorMaxResults 个再过滤
+    private List<ShopGeoIndex.Hit> searchNearbyAfter(Integer typeId, GeoCursor after, int limit){
+        if (shopGeoIndex.isReady()) {
+            return shopGeoIndex.radiusAfter(typeId.longValue(), after.x, after.y, 5000, after.distance, after.id, limit);
+        }
+        List<ShopGeoIndex.Hit> hits = new ArrayList<>();
+        for (ShopGeoIndex.Hit hit : searchNearby(typeId, after.x, after.y, cursorMaxResults)) {
+            if (ShopGeoIndex.isAfter(hit.getDistance(), hit.getId(), after.distance, after.id)) {
+                hits.add(hit);
+            }
+        }
+        hits.sort(ShopGeoIndex.ORDER);
+        return hits.size() > limit ? hits.subList(0, limit) : hits;
+    }
+
+    //游标：base64url(x:y:distance:id)，对客户端不透明；坐标取第一页的，翻页时客户端位置变化不影响顺序
+    private static String encodeCursor(GeoCursor cursor){
+        String text = cursor.x + ":" + cursor.y + ":" + cursor.distance + ":" + cursor.id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static GeoCursor decodeCursor(String cursor){
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+            if (parts.length != 4) {
+                return null;
+            }
+            double x = Double.parseDouble(parts[0]), y = Double.parseDouble(parts[1]), distance = Double.parseDouble(parts[2]);
+            if (Math.abs(x) > 180 || Math.abs(y) > 90 || !(distance >= 0) || Double.isInfinite(distance)) {
+                return null;
+            }
+            return new GeoCursor(x, y, distance, Long.parseLong(parts[3]));
+        } catch (IllegalArgumentException e) {
+            // 包括 NumberFormatException
+            return null;
+        }
+    }
+
+    //游标分页的位置：查询坐标和上一页最后一个商铺
+    static class GeoCursor {
+        final double x;
+        final double y;
+        final double distance;
+        final long id;
+
+        GeoCursor(double x, double y, double distance, long id) {
+            this.x = x;
+            this.y = y;
+            this.distance = distance;
+            this.id = id;
+        }
+    }
+
+    //根据id查询Shop（批量查缓存，未命中的一次查数据库），缓存中的对象是共享的，复制后再设置距离
+    private List<Shop> hydrateWithDistance(List<ShopGeoIndex.Hit> hits){
+        List<Long> ids = new ArrayList<>(hits.size());
+        Map<Long, Double> distanceMap = new HashMap<>(hits.size());
+        for (ShopGeoIndex.Hit hit : hits) {
+            ids.add(hit.getId());
+            distanceMap.put(hit.getId(), hit.getDistance());
+        }
+        List<Shop> cachedShops = cacheClient.queryBatchWithPassThrough(RedisConstants.CACHE_SHOP_KEY, ids, Shop.class,
+                RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES, this::listByIds, Shop::getId);
+        List<Shop> shops = new ArrayList<>(cachedShops.size());
+        for (Shop cached : cachedShops) {
+            Shop shop = BeanUtil.copyProperties(cached, Shop.class);
+            shop.setDistance(distanceMap.get(shop.getId()));
+            shops.add(shop);
+        }
+        return shops;
     }
 }
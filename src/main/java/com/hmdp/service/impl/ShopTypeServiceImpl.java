@@ -7,6 +7,7 @@ import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheMetrics;
 import com.hmdp.utils.RedisConstants;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -28,19 +29,31 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private CacheMetrics cacheMetrics;
+
     @Override
     public Result getTypeList() {
         String key = RedisConstants.CACHE_SHOPTYPE_KEY;
-
-        String cacheShopTypeJson = stringRedisTemplate.opsForValue().get(key);
-        if (StrUtil.isNotBlank(cacheShopTypeJson)) {
-            return Result.ok(JSONUtil.toList(cacheShopTypeJson,ShopType.class));
-        }
-        List<ShopType> shopTypes = query().orderByAsc("sort").list();
-        if (shopTypes.isEmpty()){
-            return Result.fail("Shop type not found");
+        long begin = System.nanoTime();
+        try {
+            String cacheShopTypeJson = stringRedisTemplate.opsForValue().get(key);
+            if (StrUtil.isNotBlank(cacheShopTypeJson)) {
+                cacheMetrics.hit(key, "redis");
+                return Result.ok(JSONUtil.toList(cacheShopTypeJson,ShopType.class));
+            }
+            cacheMetrics.miss(key);
+            long loadBegin = System.nanoTime();
+            List<ShopType> shopTypes = query().orderByAsc("sort").list();
+            cacheMetrics.recordLoad(key, loadBegin);
+            if (shopTypes.isEmpty()){
+                return Result.fail("Shop type not found");
+            }
+            stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(shopTypes));
+            cacheMetrics.write(key);
+            return Result.ok(shopTypes);
+        } finally {
+            cacheMetrics.recordGet(key, begin);
         }
-        stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(shopTypes));
-        return Result.ok(shopTypes);
     }
 }
@@ -4,6 +4,9 @@ import com.hmdp.entity.UserInfo;
 import com.hmdp.mapper.UserInfoMapper;
 import com.hmdp.service.IUserInfoService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheInvalidate;
+import com.hmdp.utils.Cached;
+import com.hmdp.utils.RedisConstants;
 import org.springframework.stereotype.Service;
 
 /**
@@ -17,4 +20,27 @@ import org.springframework.stereotype.Service;
 @Service
 public class UserInfoServiceImpl extends ServiceImpl<UserInfoMapper, UserInfo> implements IUserInfoService {
 
+    @Override
+    @Cached(key = RedisConstants.CACHE_USER_INFO_KEY + "#{#userId}", local = true)
+    public UserInfo queryInfo(Long userId) {
+        UserInfo info = getById(userId);
+        if (info == null) {
+            return null;
+        }
+        info.setCreateTime(null);
+        info.setUpdateTime(null);
+        return info;
+    }
+
+    @Override
+    @CacheInvalidate(key = RedisConstants.CACHE_USER_INFO_KEY + "#{#entity.userId}")
+    public boolean save(UserInfo entity) {
+        return super.save(entity);
+    }
+
+    @Override
+    @CacheInvalidate(key = RedisConstants.CACHE_USER_INFO_KEY + "#{#entity.userId}")
+    public boolean updateById(UserInfo entity) {
+        return super.updateById(entity);
+    }
 }
@@ -41,6 +41,22 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    /**
+    *@Description: 只缓存 UserDTO（不含手机号、密码）；不缓存空值，新注册的用户不会被之前缓存的空值挡住
+    */
+    @Override
+    @Cached(key = RedisConstants.CACHE_USER_DTO_KEY + "#{#id}", cacheNull = false)
+    public UserDTO queryUserDTO(Long id) {
+        User user = getById(id);
+        return user == null ? null : BeanUtil.copyProperties(user, UserDTO.class);
+    }
+
+    @Override
+    @CacheInvalidate(key = RedisConstants.CACHE_USER_DTO_KEY + "#{#entity.id}")
+    public boolean updateById(User entity) {
+        return super.updateById(entity);
+    }
+
     @Override
     public Result sendCode(String phone, HttpSession session) {
         //1. 校验手机号
@@ -1,6 +1,7 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
@@ -8,7 +9,13 @@ import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.RedisScriptRegistry;
+import com.hmdp.utils.SeckillBuyerDedup;
+import com.hmdp.utils.SeckillSoldOutHolder;
+import com.hmdp.utils.SeckillStockSharding;
 import com.hmdp.utils.SimpleRedisLock;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
@@ -16,21 +23,36 @@ import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -57,45 +79,144 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Autowired
     private RedissonClient redissonClient;
 
+    @Autowired
+    private SeckillSoldOutHolder seckillSoldOutHolder;
+
+    @Autowired
+    private SeckillStockSharding seckillStockSharding;
+
+    @Autowired
+    private RedisScriptRegistry redisScriptRegistry;
+
+    @Autowired
+    private SeckillBuyerDedup seckillBuyerDedup;
+
+    @Autowired
+    private HotKeyDetector hotKeyDetector;
+
     //    private BlockingDeque<VoucherOrder> orderTasks = (BlockingDeque<VoucherOrder>) new ArrayBlockingQueue<VoucherOrder>(1024 * 1024);  //阻塞队列
     //private static ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
 
-    // 只有redis版本>5时才支持redis流  redis-server --version  Redis server v=3.0.504(所以暂时将此方法注释掉，避免springboot启动报错)
-    /*
+    /**
+    *@Description: 同一消费组下的消费者个数（每个消费者一个线程）
+    */
+    @Value("${hmdp.seckill.order.consumers:2}")
+    private int consumerCount;
+
+    /**
+    *@Description: 每次 XREADGROUP 读取的消息条数，也是一次批量落库的最大订单数
+    */
+    @Value("${hmdp.seckill.order.batch-size:100}")
+    private int batchSize;
+
+    /**
+    *@Description: 当前对象的代理对象(事务)
+     * 消费者线程是线程池里的新线程，AopContext.currentProxy()底层用的ThreadLocal拿不到代理对象，所以注入成成员变量
+    */
+    @Lazy
+    @Autowired
+    private IVoucherOrderService proxy;
+
+    /**
+    *@Description: pending-list 中的消息空闲超过该毫秒数才会被认领重试（要大于一次批量落库的耗时）
+    */
+    @Value("${hmdp.seckill.order.reclaim-min-idle:30000}")
+    private long reclaimMinIdle;
+
+    /**
+    *@Description: 最大投递次数，超过后转入死信队列
+    */
+    @Value("${hmdp.seckill.order.max-deliveries:5}")
+    private long maxDeliveries;
+
+    // pending-list 重试使用的消费者名
+    private static final String RECLAIMER_NAME = "reclaimer";
+
+    private final LongAdder reclaimedCount = new LongAdder();
+
+    private final LongAdder deadLetterCount = new LongAdder();
+
+    private ExecutorService seckillOrderExecutor;
+
+    private volatile boolean running = true;
+
+    // 需要 redis 5.0 以上版本支持 Stream（redis-server --version）
     @PostConstruct
     private void init(){
-        SECKILL_ORDER_EXECUTOR.submit(()->{
-            while(true){
+        // 创建消费组 XGROUP CREATE stream.order g1 0 MKSTREAM，组已存在时redis返回BUSYGROUP，忽略即可
+        try {
+            stringRedisTemplate.opsForStream().createGroup(RedisConstants.STREAM_ORDER_KEY, ReadOffset.from("0"), RedisConstants.STREAM_ORDER_GROUP);
+        } catch (Exception e) {
+            if (!isBusyGroup(e)) {
+                log.error("创建订单消费组失败，订单消费者未启动", e);
+                return;
+            }
+        }
+        seckillOrderExecutor = Executors.newFixedThreadPool(consumerCount, new NamedThreadFactory("seckill-order-", false));
+        for (int i = 1; i <= consumerCount; i++) {
+            seckillOrderExecutor.submit(new VoucherOrderConsumer("c" + i));
+        }
+    }
+
+    @PreDestroy
+    private void destroy(){
+        running = false;
+        if (seckillOrderExecutor != null) {
+            seckillOrderExecutor.shutdownNow();
+        }
+    }
+
+    private static boolean isBusyGroup(Throwable e){
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().contains("BUSYGROUP")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+    *@Description: 消息队列消费者，g1组下名为name的消费者，每次批量读取 batchSize 条订单
+    */
+    private class VoucherOrderConsumer implements Runnable{
+
+        private final String name;
+
+        VoucherOrderConsumer(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            while(running){
                 try{
-                    // 1.从消息队列中拿消息  XREADGROUP GROUP g1 c1  COUNT 1 BLOCK 2000 STREAMS streams.order >   //g1组的c1消费者
+                    // 1.从消息队列中批量拿消息  XREADGROUP GROUP g1 c1 COUNT 100 BLOCK 2000 STREAMS stream.order >
                     List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create("stream.orders", ReadOffset.lastConsumed())
+                            Consumer.from(RedisConstants.STREAM_ORDER_GROUP, name),
+                            StreamReadOptions.empty().count(batchSize).block(Duration.ofSeconds(2)),
+                            StreamOffset.create(RedisConstants.STREAM_ORDER_KEY, ReadOffset.lastConsumed())
                     );
                     if(list == null || list.isEmpty()){
                         // 没有消息，继续下一次循环
                         continue;
                     }
-                    // 解析消息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();  // 键值对的值
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-
-                    // 获取消息成功，下单
-                    handleVouncherOrder(voucherOrder);
-                    //ack确认
-                    stringRedisTemplate.opsForStream().acknowledge("streams.order","g1",record.getId());
+                    // 2.批量下单并ack
+                    handleVoucherOrderBatch(list);
                 }catch (Exception e){
+                    if (!running) {
+                        break;
+                    }
+                    // 处理失败的消息留在pending-list里，由 reclaimPendingOrders 定时认领重试，这里稍等再继续读新消息
                     log.error("处理订单异常",e);
-                    // 从pendinglist 里取消息，重新执行
-                    handlePendingList();
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException ie) {
+                        break;
+                    }
                 }
             }
-
-        });
+        }
     }
-    */
 
     // 阻塞队列方案的线程执行方法
 //    private class VoucherOrderHandle implements Runnable{
@@ -116,94 +237,279 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 //        }
 //    }
 
-    private void handlePendingList(){
-        while(true){
-            try{
-                // 1.从pending-list中拿消息  XREADGROUP GROUP g1 c1  COUNT 1 BLOCK 2000 STREAMS streams.order 0   //g1组的c1消费者
-                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                        Consumer.from("g1", "c1"),
-                        StreamReadOptions.empty().count(1),
-                        StreamOffset.create("stream.orders", ReadOffset.from("0"))
-                );
-                if(list == null || list.isEmpty()){
-                    // 没有读到，说明pending-list里没有异常消息 结束循环
-                    break;
+    /**
+    *@Description: pending-list 认领重试
+     * 1. XPENDING 取出空闲超过 minIdle 的消息（消费者挂掉或处理失败后没有ack的消息）
+     * 2. 投递次数达到上限的消息转入死信队列 stream.order.dlq 并ack，避免一条坏消息一直重试
+     * 3. 其余的 XCLAIM 给 reclaimer 重新处理，批量失败时逐条处理，坏消息只影响自己
+    */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.order.reclaim-interval:5000}")
+    public void reclaimPendingOrders(){
+        if (!running || seckillOrderExecutor == null) {
+            return;
+        }
+        try {
+            // 1. XPENDING stream.order g1 - + count
+            PendingMessages pendingMessages = stringRedisTemplate.opsForStream()
+                    .pending(RedisConstants.STREAM_ORDER_KEY, RedisConstants.STREAM_ORDER_GROUP, Range.unbounded(), batchSize);
+            List<RecordId> claimIds = new ArrayList<>();
+            for (PendingMessage pendingMessage : pendingMessages) {
+                if (pendingMessage.getElapsedTimeSinceLastDelivery().toMillis() < reclaimMinIdle) {
+                    continue;
+                }
+                if (pendingMessage.getTotalDeliveryCount() >= maxDeliveries) {
+                    // 2. 超过重试次数，转入死信队列
+                    moveToDeadLetter(pendingMessage);
+                } else {
+                    claimIds.add(pendingMessage.getId());
+                }
+            }
+            if (claimIds.isEmpty()) {
+                return;
+            }
+            // 3. XCLAIM stream.order g1 reclaimer minIdle ids...（会增加投递次数）
+            RedisStreamCommands.XClaimOptions options = RedisStreamCommands.XClaimOptions
+                    .minIdle(Duration.ofMillis(reclaimMinIdle))
+                    .ids(claimIds.toArray(new RecordId[0]));
+            List<StringRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<StringRecord>>) connection ->
+                    ((StringRedisConnection) connection).xClaim(
+                            RedisConstants.STREAM_ORDER_KEY, RedisConstants.STREAM_ORDER_GROUP, RECLAIMER_NAME, options));
+            if (claimed == null || claimed.isEmpty()) {
+                return;
+            }
+            List<MapRecord<String, Object, Object>> records = new ArrayList<>(claimed.size());
+            for (StringRecord record : claimed) {
+                Map<Object, Object> value = new HashMap<>(record.getValue());
+                records.add(StreamRecords.newRecord().in(record.getStream()).withId(record.getId()).ofMap(value));
+            }
+            reclaimedCount.add(records.size());
+            try {
+                handleVoucherOrderBatch(records);
+            } catch (Exception e) {
+                log.warn("pending-list批量重试失败，逐条重试", e);
+                for (MapRecord<String, Object, Object> record : records) {
+                    try {
+                        handleVoucherOrderBatch(Collections.singletonList(record));
+                    } catch (Exception ex) {
+                        log.error("pending-list订单重试失败，id:{}", record.getId(), ex);
+                    }
                 }
-                // 解析消息
-                MapRecord<String, Object, Object> record = list.get(0);
-                Map<Object, Object> value = record.getValue();  // 键值对的值
-                VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-
-                // 获取消息成功，下单
-                handleVouncherOrder(voucherOrder);
-                //ack确认
-                stringRedisTemplate.opsForStream().acknowledge("streams.order","g1",record.getId());
-            }catch (Exception e){
-                log.error("处理pending-list订单异常",e);
             }
+        } catch (Exception e) {
+            log.error("处理pending-list订单异常",e);
         }
     }
 
-    private void handleVouncherOrder(VoucherOrder voucherOrder) throws InterruptedException {
-        // 1. 获取用户（因为是从线程池中新开的线程，不是主线程，从UserHolder取不到用户信息，所以只能从voucherOrder中取）
-        Long userId = voucherOrder.getUserId();
-        // 2. 创建锁对象 (其实不加锁也可以，因为redis做了并发的避免，但此处加只是做个兜底（虽然这种可能性几乎没有）)
-        RLock lock = redissonClient.getLock("lock:order:" + userId);
-        boolean isLock = lock.tryLock();
-        if(!isLock){
-            log.error("不允许重复下单");
+    private void moveToDeadLetter(PendingMessage pendingMessage){
+        RecordId id = pendingMessage.getId();
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(RedisConstants.STREAM_ORDER_KEY, Range.closed(id.getValue(), id.getValue()));
+        if (records != null && !records.isEmpty()) {
+            // 保留原消息内容，附带原消息id、投递次数、最后的消费者，方便人工排查
+            Map<Object, Object> value = new HashMap<>(records.get(0).getValue());
+            value.put("originId", id.getValue());
+            value.put("deliveries", String.valueOf(pendingMessage.getTotalDeliveryCount()));
+            value.put("consumer", pendingMessage.getConsumerName());
+            stringRedisTemplate.opsForStream().add(RedisConstants.STREAM_ORDER_DLQ_KEY, value);
+        }
+        // 消息已经被删掉（range为空）时也直接ack，清理掉pending-list
+        stringRedisTemplate.opsForStream().acknowledge(RedisConstants.STREAM_ORDER_KEY, RedisConstants.STREAM_ORDER_GROUP, id);
+        deadLetterCount.increment();
+        log.error("订单消息超过最大投递次数，转入死信队列，id:{}，投递次数:{}", id, pendingMessage.getTotalDeliveryCount());
+    }
+
+    @Override
+    public Result queryOrderStreamStats(){
+        Map<String, Object> stats = new LinkedHashMap<>();
+        // XPENDING stream.order g1  pending-list 总数及各消费者的数量
+        PendingMessagesSummary summary = stringRedisTemplate.opsForStream()
+                .pending(RedisConstants.STREAM_ORDER_KEY, RedisConstants.STREAM_ORDER_GROUP);
+        stats.put("pending", summary.getTotalPendingMessages());
+        stats.put("pendingPerConsumer", summary.getPendingMessagesPerConsumer());
+        // 最老的pending消息的年龄（消息id里的时间戳）
+        long oldestAgeMillis = 0;
+        if (summary.getTotalPendingMessages() > 0) {
+            RecordId oldest = summary.minRecordId();
+            oldestAgeMillis = System.currentTimeMillis() - oldest.getTimestamp();
+        }
+        stats.put("oldestPendingAgeMillis", oldestAgeMillis);
+        stats.put("deadLetters", stringRedisTemplate.opsForStream().size(RedisConstants.STREAM_ORDER_DLQ_KEY));
+        stats.put("reclaimed", reclaimedCount.sum());
+        stats.put("deadLettered", deadLetterCount.sum());
+        return Result.ok(stats);
+    }
+
+    /**
+    *@Description: 把一批消息转成订单，一个事务内批量落库，提交后一次性ack
+     * (不再按用户加锁：一人一单已经由seckill.lua保证，这里按订单id去重兜底重复投递)
+    *@Param: [records 同一次XREADGROUP读到的消息]
+    *@return: void
+    */
+    private void handleVoucherOrderBatch(List<MapRecord<String, Object, Object>> records){
+        // 1. 解析消息
+        List<VoucherOrder> voucherOrders = new ArrayList<>(records.size());
+        RecordId[] recordIds = new RecordId[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            MapRecord<String, Object, Object> record = records.get(i);
+            Map<Object, Object> value = record.getValue();  // 键值对的值
+            voucherOrders.add(BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true));
+            recordIds[i] = record.getId();
+        }
+        // 2. 批量写入数据库（代理对象调用，事务才生效）
+        proxy.createVoucherOrderBatch(voucherOrders);
+        // 3. ack确认
+        stringRedisTemplate.opsForStream().acknowledge(RedisConstants.STREAM_ORDER_KEY, RedisConstants.STREAM_ORDER_GROUP, recordIds);
+    }
+
+    /**
+    *@Description: 批量创建订单：一条多行insert写订单 + 每张优惠券一条 stock = stock - n
+     * 任一优惠券扣减库存失败都抛异常回滚整批，消息不ack，留在pending-list由 reclaimPendingOrders 重试或转入死信队列
+    *@Param: [voucherOrders]
+    *@return: void
+    */
+    @Override
+    @Transactional
+    public void createVoucherOrderBatch(List<VoucherOrder> voucherOrders){
+        // 1. 过滤掉已经落库的订单（pending-list里的消息可能在ack前已经写入过）
+        List<Long> orderIds = voucherOrders.stream().map(VoucherOrder::getId).collect(Collectors.toList());
+        Set<Long> existIds = selectIds(orderIds);
+        List<VoucherOrder> newOrders = voucherOrders.stream()
+                .filter(order -> !existIds.contains(order.getId()))
+                .collect(Collectors.toList());
+        if (newOrders.isEmpty()) {
             return;
         }
-        //TODO 写入到数据库的一些操作(即 createVoucherOrder 但要注意的是如果在此处获取代理对象会失效，因为获取代理对象的底层用的ThreadLocal，而我们此时是在线程池里的新线程执行的：解决方法：1.将代理对象传参进来 2.将代理对象变成类的成员变量)
+        // 2. 一条多行 INSERT IGNORE 写入订单，一人一单由唯一索引 uk_user_voucher 兜底
+        //    （seckill.lua 已经保证，这里防止redis数据丢失后重复下单），已经下过单的用户的订单被忽略
+        int inserted = getBaseMapper().insertBatch(newOrders);
+        if (inserted < newOrders.size()) {
+            Set<Long> insertedIds = selectIds(newOrders.stream().map(VoucherOrder::getId).collect(Collectors.toList()));
+            Map<Long, Long> droppedCount = new HashMap<>();
+            for (VoucherOrder order : newOrders) {
+                if (!insertedIds.contains(order.getId())) {
+                    log.error("用户已经购买过一次，丢弃订单，orderId:{}，userId:{}，voucherId:{}",
+                            order.getId(), order.getUserId(), order.getVoucherId());
+                    droppedCount.merge(order.getVoucherId(), 1L, Long::sum);
+                }
+            }
+            newOrders = newOrders.stream().filter(order -> insertedIds.contains(order.getId())).collect(Collectors.toList());
+            // 2.1 被丢弃的订单在redis中扣过库存，提交后退回（回滚时消息会重试，不能提前退）
+            afterCommit(() -> droppedCount.forEach(seckillStockSharding::adjustStock));
+        }
+        // 3. 按优惠券聚合扣减库存  where voucher_id = ? and stock >= n
+        Map<Long, Long> countMap = newOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+        countMap.forEach((voucherId, count) -> {
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + count)
+                    .eq("voucher_id", voucherId).ge("stock", count)
+                    .update();
+            if (!success) {
+                // redis已经做了库存判断，走到这里说明redis与数据库库存不一致，整批回滚
+                throw new IllegalStateException("扣减库存失败，voucherId:" + voucherId + "，数量:" + count);
+            }
+        });
     }
 
-    //秒杀lua脚本
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
-    static {
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("./lua/seckill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
+    private Set<Long> selectIds(List<Long> orderIds){
+        return query().select("id").in("id", orderIds).list()
+                .stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+    }
+
+    //事务提交后再修改redis
+    private static void afterCommit(Runnable action){
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
     }
 
     //基于redis完成秒杀资格判断（秒杀优化）+Stream消息队列
     @Override
     public Result seckKillVoucher(Long voucherId) {
-        // 1. 查寻优惠券
-        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+        // 0. 本地已标记售罄，直接拒绝，不再访问redis
+        if (seckillSoldOutHolder.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        // 1. 查寻优惠券的秒杀时间（本地缓存）
+        SeckillVoucher voucher = seckillVoucherService.queryTimeWindow(voucherId);
         if(voucher == null){
             return Result.fail("优惠券信息错误!");
         }
+        LocalDateTime now = LocalDateTime.now();
         // 2. 判断秒杀是否开始
-        if (voucher.getBeginTime().isAfter(LocalDateTime.now())) {
+        if (voucher.getBeginTime().isAfter(now)) {
             return Result.fail("秒杀尚未开始!");
         }
         // 3. 判断秒杀是否结束
-        if (voucher.getBeginTime().isAfter(LocalDateTime.now())) {
+        if (voucher.getEndTime().isBefore(now)) {
             return Result.fail("秒杀已经结束!");
         }
 
 
         Long userId = UserHolder.getUser().getId();
+        hotKeyDetector.record(seckillStockSharding.stockKey(voucherId, -1));
         long orderId = redisIdWorker.nexId("order");
-        // 1.执行lua脚本
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.EMPTY_LIST,
-                voucherId.toString(),
-                userId.toString(),
-                String.valueOf(orderId)
-        );
-        int resultValue = result.intValue();
+        // 分片模式下用户固定路由到 userId % K 号分片，非分片模式shard为-1
+        int shards = seckillStockSharding.shardCount(voucherId);
+        int shard = shards > 1 ? seckillStockSharding.shardOf(userId, shards) : -1;
+        // 用户所在分片的库存key和去重key
+        List<String> keys = Arrays.asList(seckillStockSharding.stockKey(voucherId, shard), seckillBuyerDedup.key(voucherId, shard));
+        String dedupMode = seckillBuyerDedup.mode(voucherId);
+        // 去重key在秒杀结束后自动过期
+        long expireAt = seckillBuyerDedup.expireAt(voucher.getEndTime());
+        // 1.执行lua脚本（记下执行前的时间，售罄标记据此忽略在补货之前得出的结论）
+        long observedAt = System.currentTimeMillis();
+        int resultValue = executeSeckillScript(keys, userId, dedupMode, shards, expireAt);
+        // 1.1 分片卖空了，从其它分片借库存后重试；借不到说明所有分片都没库存了
+        while(resultValue == 1 && shards > 1 && seckillStockSharding.rebalance(voucherId, shard)){
+            resultValue = executeSeckillScript(keys, userId, dedupMode, shards, expireAt);
+        }
+        if(resultValue == 1){
+            // 库存不足，标记售罄（并广播给其它节点），后续请求在本地直接拒绝
+            seckillSoldOutHolder.markSoldOut(voucherId, observedAt);
+        }
         // 2.判断结果是否为0  0为有购买资格
         if(resultValue != 0){
             return Result.fail(resultValue==1?"库存不足":"不能重复下单");
         }
-        // 3. 保存到数据库的信息通过消息队列放到线程池中执行
+        // 3. 保存到数据库的信息发送到消息队列，由消费者线程池批量落库
+        Map<String, String> message = new HashMap<>();
+        message.put("userId", userId.toString());
+        message.put("voucherId", voucherId.toString());
+        message.put("id", String.valueOf(orderId));
+        try {
+            stringRedisTemplate.opsForStream().add(RedisConstants.STREAM_ORDER_KEY, message);
+        } catch (Exception e) {
+            // 消息没有发出去，退回库存和下单资格，用户可以重新抢
+            log.error("发送订单消息失败，撤销秒杀资格，voucherId:{}，userId:{}", voucherId, userId, e);
+            redisScriptRegistry.execute("seckill_cancel", keys, userId.toString(), dedupMode, String.valueOf(shards));
+            return Result.fail("系统繁忙，请稍后重试");
+        }
 
         // 4. 返回订单ID
         return Result.ok(orderId);
     }
 
+    private int executeSeckillScript(List<String> keys, Long userId, String dedupMode, int shards, long expireAt){
+        //秒杀lua脚本 seckill.lua
+        Long result = redisScriptRegistry.execute(
+                "seckill",
+                keys,
+                userId.toString(),
+                dedupMode,
+                String.valueOf(expireAt),
+                String.valueOf(shards)
+        );
+        return result.intValue();
+    }
+
 
 
 //    @Override
@@ -261,7 +567,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 //        //创建锁对象
 //
 //        //自己实现的分布式锁
-////        SimpleRedisLock lock = new SimpleRedisLock("order:" + userID, stringRedisTemplate);
+////        SimpleRedisLock lock = new SimpleRedisLock("order:" + userID, stringRedisTemplate, redisScriptRegistry);
 ////        boolean isLock = lock.tryLock(1200);
 //
 //        //已有框架redisson提供的锁实现
@@ -7,11 +7,18 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheInvalidate;
+import com.hmdp.utils.Cached;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillBuyerDedup;
+import com.hmdp.utils.SeckillSoldOutHolder;
+import com.hmdp.utils.SeckillStockSharding;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
 import java.util.List;
@@ -33,16 +40,32 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private SeckillSoldOutHolder seckillSoldOutHolder;
+
+    @Autowired
+    private SeckillStockSharding seckillStockSharding;
+
+    @Autowired
+    private SeckillBuyerDedup seckillBuyerDedup;
+
     @Override
-    public Result queryVoucherOfShop(Long shopId) {
+    @Cached(key = RedisConstants.CACHE_VOUCHER_SHOP_KEY + "#{#shopId}", ttl = 1)
+    public Voucher[] queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
         List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
-        // 返回结果
-        return Result.ok(vouchers);
+        return vouchers.toArray(new Voucher[0]);
+    }
+
+    @Override
+    @CacheInvalidate(key = RedisConstants.CACHE_VOUCHER_SHOP_KEY + "#{#entity.shopId}")
+    public boolean save(Voucher entity) {
+        return super.save(entity);
     }
 
     @Override
     @Transactional
+    @CacheInvalidate(key = RedisConstants.CACHE_VOUCHER_SHOP_KEY + "#{#voucher.shopId}")
     public void addSeckillVoucher(Voucher voucher) {
         // 保存优惠券
         save(voucher);
@@ -54,7 +77,55 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
 
-        //将秒杀优惠券的 库存  信息保存到redis中
-        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY+voucher.getId(), String.valueOf(voucher.getStock()));
+        afterCommit(() -> {
+            //预热秒杀时间的本地缓存（回滚时不会留下不存在的券）
+            seckillVoucherService.cacheTimeWindow(seckillVoucher);
+            //将秒杀优惠券的 库存  信息保存到redis中（开启分片时拆到多个分片key）
+            seckillStockSharding.initStock(voucher.getId(), voucher.getStock(), seckillBuyerDedup.expireAt(voucher.getEndTime()));
+            //确定一人一单的去重方式（set/bitmap）
+            seckillBuyerDedup.init(voucher.getId());
+            //清除售罄标记
+            seckillSoldOutHolder.reset(voucher.getId());
+        });
+    }
+
+    @Override
+    @Transactional
+    public Result addSeckillStock(Long voucherId, Integer count) {
+        if (count == null || count <= 0) {
+            return Result.fail("补货数量必须大于0!");
+        }
+        SeckillVoucher voucher = seckillVoucherService.queryTimeWindow(voucherId);
+        if (voucher == null) {
+            return Result.fail("优惠券信息错误!");
+        }
+        // 1. 数据库加库存
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            return Result.fail("优惠券信息错误!");
+        }
+        // 2. 提交后redis加库存、清除售罄标记（redis失败时由库存对账发现）
+        afterCommit(() -> {
+            seckillStockSharding.addStock(voucherId, count, seckillBuyerDedup.expireAt(voucher.getEndTime()));
+            seckillSoldOutHolder.reset(voucherId);
+        });
+        return Result.ok();
+    }
+
+    //事务提交后再修改redis，回滚时redis不变
+    private static void afterCommit(Runnable action){
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
     }
 }
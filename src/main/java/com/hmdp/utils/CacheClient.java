@@ -1,24 +1,66 @@
 package com.hmdp.utils;
 
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
-import com.hmdp.entity.Shop;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * @ClassName: CacheClient
  * @Description: 封装的缓存工具类
+ * 一级缓存：按key前缀开启的本地缓存（容量+过期时间限制，存反序列化后的对象）  二级缓存：redis
+ * 通过 delete 删除缓存时，会经 redis 发布订阅通知所有节点删除本地缓存
+ * 注意：本地缓存命中时返回的是共享对象，调用方不要修改
+ * redis中的值格式：[魔数 1字节][编解码器tag 1字节][逻辑过期时间 8字节毫秒，0表示没有][数据]，编解码器可按key前缀选择
+ * 旧格式（hutool JSON字符串）仍然可以读取，读到后按新格式重写（保留剩余TTL）
+ * 缓存未命中时按key合并请求（single-flight）：同一节点同一个key同时只有一个线程加载，其它线程等待同一个future
+ * queryWithMutex 再加上redis互斥锁保证跨节点只有一个加载者，没拿到锁的节点订阅加载完成通知，不再休眠轮询
+ * 各方法按key前缀记录命中/未命中/空值/重建/加锁等计数和耗时（CacheMetrics）
+ * 每次查询都交给 HotKeyDetector 计数，没有开启本地缓存的前缀，热key自动放入短有效期的热点本地缓存
+ * 逻辑过期的key提前刷新（refresh-ahead）：被查询的key登记到刷新表，读取时和定时扫描时按概率提前过期（XFetch）判断，
+ *   越接近过期、加载越慢越容易提前刷新；重建按key去重，重建线程池的队列有界，满了丢弃（下次读取/扫描会再提交）
  * @date: 2023/2/17  19:53
  * @Version: 1.0
  */
@@ -30,16 +72,373 @@ public class CacheClient {
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
-    //线程池
-    private static final ExecutorService CACHE_REBUILD_EXXECUTOR = Executors.newFixedThreadPool(10);
+    @Autowired
+    private RedisMessageListenerContainer listenerContainer;
+
+    @Autowired
+    private RedisScriptRegistry redisScriptRegistry;
+
+    @Autowired
+    private HotKeyDetector hotKeyDetector;
+
+    @Autowired
+    private CacheMetrics cacheMetrics;
+
+    @Value("${hmdp.hotkey.local-size:1000}")
+    private int hotLocalSize;
+
+    @Value("${hmdp.hotkey.local-ttl-millis:2000}")
+    private long hotLocalTtlMillis;
+
+    // 热key的本地缓存（有效期很短，只用于削峰）
+    private Cache<String, Object> hotCache;
+
+    // 默认编解码器，json / smile
+    @Value("${hmdp.cache.codec:json}")
+    private String defaultCodecName;
+
+    // 提前刷新的激进程度，越大越早刷新
+    @Value("${hmdp.cache.refresh.beta:1.0}")
+    private double refreshBeta;
+
+    @Value("${hmdp.cache.refresh.threads:10}")
+    private int refreshThreads;
+
+    @Value("${hmdp.cache.refresh.queue-capacity:1000}")
+    private int refreshQueueCapacity;
+
+    // 最多登记的逻辑过期key数
+    @Value("${hmdp.cache.refresh.max-keys:10000}")
+    private int refreshMaxKeys;
+
+    // 超过该时间没有被查询的key不再提前刷新
+    @Value("${hmdp.cache.refresh.idle-seconds:600}")
+    private long refreshIdleSeconds;
+
+    @Value("${hmdp.cache.refresh.scan-interval:1000}")
+    private long refreshScanInterval;
+
+    //线程池（有界队列）
+    private ThreadPoolExecutor cacheRebuildExecutor;
+
+    // key -> 提前刷新登记信息
+    private final Map<String, RefreshEntry> refreshEntries = new ConcurrentHashMap<>();
+    // 已提交还未完成的重建
+    private final Set<String> pendingRebuilds = ConcurrentHashMap.newKeySet();
+    private final LongAdder rebuildCount = new LongAdder();
+    private final LongAdder earlyRebuildCount = new LongAdder();
+    private final LongAdder rejectedRebuildCount = new LongAdder();
+
+    // 本地缓存空值的占位对象
+    private static final Object NULL_VALUE = new Object();
+    // redis未命中的占位对象
+    private static final Object MISS = new Object();
+
+    // key -> 本节点正在进行的加载
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    // key -> 等待其它节点加载完成的通知
+    private final Map<String, CompletableFuture<Void>> loadWaiters = new ConcurrentHashMap<>();
+
+    // key前缀 -> 本地缓存（一级缓存）
+    private final Map<String, Cache<String, Object>> localCaches = new ConcurrentHashMap<>();
+    // 不自动放入热点本地缓存的key前缀（返回值会被调用方修改的）
+    private final Set<String> hotLocalDisabled = ConcurrentHashMap.newKeySet();
+
+    // 新格式的魔数，0xC0 不会出现在 UTF-8 编码的旧JSON值开头
+    private static final byte MAGIC = (byte) 0xC0;
+    private static final int HEADER_LENGTH = 10;
+
+    private final Map<String, CacheCodec> codecsByName = new ConcurrentHashMap<>();
+    private final CacheCodec[] codecsByTag = new CacheCodec[256];
+    // key前缀 -> 编解码器
+    private final Map<String, CacheCodec> prefixCodecs = new ConcurrentHashMap<>();
+    private CacheCodec defaultCodec;
+
+    @PreDestroy
+    private void destroy(){
+        cacheRebuildExecutor.shutdownNow();
+    }
+
+    @PostConstruct
+    private void init(){
+        registerCodec(JacksonCacheCodec.json());
+        registerCodec(JacksonCacheCodec.smile());
+        defaultCodec = codec(defaultCodecName);
+        hotCache = CacheUtil.newLRUCache(hotLocalSize, hotLocalTtlMillis);
+        cacheRebuildExecutor = new ThreadPoolExecutor(refreshThreads, refreshThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(refreshQueueCapacity), new NamedThreadFactory("cache-rebuild-", true),
+                new ThreadPoolExecutor.AbortPolicy());
+        // 其它节点删除缓存时，删除本节点的本地缓存
+        listenerContainer.addMessageListener(
+                (message, pattern) -> evictLocal(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RedisConstants.CACHE_INVALIDATE_CHANNEL)
+        );
+        // 持有互斥锁的节点加载完成后，唤醒等待该key的线程
+        listenerContainer.addMessageListener(
+                (message, pattern) -> {
+                    CompletableFuture<Void> waiter = loadWaiters.remove(new String(message.getBody(), StandardCharsets.UTF_8));
+                    if (waiter != null) {
+                        waiter.complete(null);
+                    }
+                },
+                new ChannelTopic(RedisConstants.CACHE_LOADED_CHANNEL)
+        );
+    }
+
+    /**
+    *@Description: 为某个key前缀开启本地缓存
+    *@Param: [keyPrefix, capacity 最多缓存的key数（LRU淘汰）, ttl 本地缓存的有效期, unit]
+    *@return: void
+    */
+    public void enableLocalCache(String keyPrefix, int capacity, long ttl, TimeUnit unit){
+        localCaches.put(keyPrefix, CacheUtil.newLRUCache(capacity, unit.toMillis(ttl)));
+    }
+
+    /**
+    *@Description: 前缀还没有本地缓存时开启（已开启的不覆盖）
+    */
+    public void enableLocalCacheIfAbsent(String keyPrefix, int capacity, long ttl, TimeUnit unit){
+        localCaches.computeIfAbsent(keyPrefix, k -> CacheUtil.newLRUCache(capacity, unit.toMillis(ttl)));
+    }
+
+    /**
+    *@Description: 某个key前缀的热key不放入热点本地缓存，每次都从redis反序列化出新对象
+    * 调用方会修改返回对象时使用，否则同一个热key的请求会拿到同一个实例
+    */
+    public void disableHotLocalCache(String keyPrefix){
+        hotLocalDisabled.add(keyPrefix);
+    }
+
+    /**
+    *@Description: 注册编解码器，tag 不能和已有的重复
+    */
+    public synchronized void registerCodec(CacheCodec codec){
+        int tag = codec.tag() & 0xFF;
+        if (codecsByTag[tag] != null && codecsByTag[tag] != codec) {
+            throw new IllegalArgumentException("编解码器tag重复：" + codec.tag());
+        }
+        codecsByTag[tag] = codec;
+        codecsByName.put(codec.name(), codec);
+    }
+
+    /**
+    *@Description: 为某个key前缀指定编解码器，只影响之后的写入，旧值按自身头部的tag解码
+    */
+    public void useCodec(String keyPrefix, String codecName){
+        prefixCodecs.put(keyPrefix, codec(codecName));
+    }
+
+    private CacheCodec codec(String name){
+        CacheCodec codec = codecsByName.get(name);
+        if (codec == null) {
+            throw new IllegalArgumentException("未知的缓存编解码器：" + name);
+        }
+        return codec;
+    }
+
+    private CacheCodec codecFor(String key){
+        for (Map.Entry<String, CacheCodec> entry : prefixCodecs.entrySet()) {
+            if (key.startsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return defaultCodec;
+    }
 
     public void set(String key, Object value, Long time, TimeUnit unit){
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value),time,unit);
+        cacheMetrics.write(CacheMetrics.prefixOf(key));
+        writeRaw(key, encode(key, value, 0L), unit.toMillis(time));
     }
 
     public void setWithLogicExpire(String key, Object value, Long time, TimeUnit unit){
-        RedisData redisData = new RedisData(LocalDateTime.now().plusSeconds(unit.toSeconds(time)),value);
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        cacheMetrics.write(CacheMetrics.prefixOf(key));
+        writeRaw(key, encode(key, value, System.currentTimeMillis() + unit.toMillis(time)), -1L);
+    }
+
+    /**
+    *@Description: 批量写入，一次pipeline
+    *@Param: [values key -> 对象, time, unit]
+    */
+    public void setBatch(Map<String, ?> values, Long time, TimeUnit unit){
+        setBatch(values, time, 0L, unit);
+    }
+
+    /**
+    *@Description: 批量写入，一次pipeline；每个key的过期时间在 [time, time + jitter) 内随机，避免同一批写入的key同时过期
+    *@Param: [values key -> 对象, time, jitter 随机增加的过期时间上限, unit]
+    */
+    public void setBatch(Map<String, ?> values, Long time, Long jitter, TimeUnit unit){
+        if (values.isEmpty()) {
+            return;
+        }
+        long ttlMillis = unit.toMillis(time);
+        long jitterMillis = unit.toMillis(jitter);
+        List<byte[]> rawKeys = new ArrayList<>(values.size());
+        List<byte[]> rawValues = new ArrayList<>(values.size());
+        long[] ttls = new long[values.size()];
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            cacheMetrics.write(CacheMetrics.prefixOf(entry.getKey()));
+            ttls[rawKeys.size()] = jitterMillis > 0 ? ttlMillis + ThreadLocalRandom.current().nextLong(jitterMillis) : ttlMillis;
+            rawKeys.add(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            rawValues.add(encode(entry.getKey(), entry.getValue(), 0L));
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < rawKeys.size(); i++) {
+                connection.set(rawKeys.get(i), rawValues.get(i), Expiration.milliseconds(ttls[i]), RedisStringCommands.SetOption.upsert());
+            }
+            return null;
+        });
+    }
+
+    /**
+    *@Description: 直接读取一个key（不经过本地缓存），未命中或空值都返回null
+    */
+    public <R> R get(String key, Class<R> type){
+        String prefix = CacheMetrics.prefixOf(key);
+        byte[] raw = readRaw(key);
+        if (raw == null) {
+            cacheMetrics.miss(prefix);
+            return null;
+        }
+        if (raw.length == 0) {
+            cacheMetrics.nullHit(prefix);
+            return null;
+        }
+        cacheMetrics.hit(prefix, "redis");
+        return decode(key, raw, type, false).data;
+    }
+
+    /**
+    *@Description: 删除缓存：删除redis，删除本地缓存，并通知其它节点删除本地缓存
+    *@Param: [key]
+    *@return: void
+    */
+    public void delete(String key){
+        cacheMetrics.delete(CacheMetrics.prefixOf(key));
+        stringRedisTemplate.delete(key);
+        evictLocal(key);
+        try {
+            stringRedisTemplate.convertAndSend(RedisConstants.CACHE_INVALIDATE_CHANNEL, key);
+        } catch (Exception e) {
+            // 通知失败时其它节点的本地缓存在过期后失效
+            log.warn("广播本地缓存失效失败，key:{}", key, e);
+        }
+    }
+
+    private byte[] encode(String key, Object value, long expireMillis){
+        CacheCodec codec = codecFor(key);
+        byte[] payload = codec.encode(value);
+        return ByteBuffer.allocate(HEADER_LENGTH + payload.length)
+                .put(MAGIC)
+                .put(codec.tag())
+                .putLong(expireMillis)
+                .put(payload)
+                .array();
+    }
+
+    /**
+    *@Description: 解码redis中的值，旧格式按 hutool JSON 解析后重写成新格式
+    *@Param: [key, raw 非空, type, logicExpire 是否是逻辑过期的值]
+    */
+    private <R> Decoded<R> decode(String key, byte[] raw, Class<R> type, boolean logicExpire){
+        if (raw[0] == MAGIC && raw.length >= HEADER_LENGTH) {
+            ByteBuffer buffer = ByteBuffer.wrap(raw);
+            buffer.get();
+            CacheCodec codec = codecsByTag[buffer.get() & 0xFF];
+            if (codec == null) {
+                throw new IllegalStateException("缓存值的编解码器未注册，key:" + key);
+            }
+            long expireMillis = buffer.getLong();
+            R data = codec.decode(raw, HEADER_LENGTH, raw.length - HEADER_LENGTH, type);
+            return new Decoded<>(data, expireMillis);
+        }
+        // 旧格式：JSON字符串
+        String json = new String(raw, StandardCharsets.UTF_8);
+        Decoded<R> decoded;
+        if (logicExpire) {
+            RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+            R data = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+            long expireMillis = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            decoded = new Decoded<>(data, expireMillis);
+        } else {
+            decoded = new Decoded<>(JSONUtil.toBean(json, type), 0L);
+        }
+        migrate(key, raw, encode(key, decoded.data, decoded.expireMillis));
+        return decoded;
+    }
+
+    /**
+    *@Description: 旧格式的值按新格式重写，保留剩余的TTL
+     * 读到旧值之后 key 可能已经被重新写入或删除，cache_migrate.lua 只在值仍是 oldValue 时改写
+    */
+    private void migrate(String key, byte[] oldValue, byte[] value){
+        try {
+            redisScriptRegistry.executeRaw("cache_migrate", Collections.singletonList(key), oldValue, value);
+        } catch (Exception e) {
+            log.warn("缓存值迁移失败，key:{}", key, e);
+        }
+    }
+
+    private byte[] readRaw(String key){
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey));
+    }
+
+    /**
+    *@Description: 写入redis，ttlMillis < 0 表示不设置过期时间
+    */
+    private void writeRaw(String key, byte[] value, long ttlMillis){
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            if (ttlMillis < 0) {
+                connection.set(rawKey, value);
+            } else {
+                connection.set(rawKey, value, Expiration.milliseconds(ttlMillis), RedisStringCommands.SetOption.upsert());
+            }
+            return null;
+        });
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochMillis){
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    private static class Decoded<R> {
+        private final R data;
+        private final long expireMillis;
+
+        private Decoded(R data, long expireMillis) {
+            this.data = data;
+            this.expireMillis = expireMillis;
+        }
+    }
+
+    /**
+    *@Description: 记录访问，返回该key使用的本地缓存：前缀开启了本地缓存用前缀的，否则热key用热点本地缓存，其它不用
+    */
+    private Cache<String, Object> localCache(String keyPrefix, String key){
+        hotKeyDetector.record(key);
+        return localCacheOf(keyPrefix, key);
+    }
+
+    private Cache<String, Object> localCacheOf(String keyPrefix, String key){
+        Cache<String, Object> localCache = localCaches.get(keyPrefix);
+        if (localCache != null) {
+            return localCache;
+        }
+        if (hotLocalDisabled.contains(keyPrefix)) {
+            return null;
+        }
+        return hotKeyDetector.isHot(key) ? hotCache : null;
+    }
+
+    private void evictLocal(String key){
+        hotCache.remove(key);
+        for (Map.Entry<String, Cache<String, Object>> entry : localCaches.entrySet()) {
+            if (key.startsWith(entry.getKey())) {
+                entry.getValue().remove(key);
+            }
+        }
     }
 
     /**
@@ -48,85 +447,538 @@ public class CacheClient {
     *@return: R
     */
     public <R,ID> R queryWithPassThrough(String keyPrefix, ID id, Class<R> type, Long time, TimeUnit unit, Function<ID,R> dbFallback){
-        String key = keyPrefix + id;
-        // 1. 从redis中查询商铺缓存  （以json形式存储）
-        String cacheJson = stringRedisTemplate.opsForValue().get(key);
-        // 2. 判断是否存在
-        if (StrUtil.isNotBlank(cacheJson)){
-            // 3. 存在，直接返回
-            return JSONUtil.toBean(cacheJson, type);
-        }
-        // 判断命中是否是空值
-        if(cacheJson != null){
-            //说明是缓存空值"" 返回错误 穿透结果
-            return null;
+        return queryWithPassThrough(keyPrefix, id, type, time, unit, dbFallback, true);
+    }
+
+    /**
+    *@Description: 查询+解决缓存穿透，cacheNull 为 false 时数据库不存在也不缓存空值
+    */
+    public <R,ID> R queryWithPassThrough(String keyPrefix, ID id, Class<R> type, Long time, TimeUnit unit, Function<ID,R> dbFallback, boolean cacheNull){
+        long begin = System.nanoTime();
+        try {
+            String key = keyPrefix + id;
+            // 0. 查本地缓存（不刷新访问时间，保证本地缓存按写入时间过期）
+            Cache<String, Object> localCache = localCache(keyPrefix, key);
+            if (localCache != null) {
+                Object local = localCache.get(key, false);
+                if (local != null) {
+                    recordLocalHit(keyPrefix, local);
+                    return local == NULL_VALUE ? null : type.cast(local);
+                }
+            }
+            // 1. 从redis中查询缓存
+            byte[] raw = readRaw(key);
+            // 2. 判断是否存在
+            if (raw != null && raw.length > 0){
+                // 3. 存在，直接返回
+                cacheMetrics.hit(keyPrefix, "redis");
+                R r = decode(key, raw, type, false).data;
+                putLocal(localCache, key, r);
+                return r;
+            }
+            // 判断命中是否是空值
+            if(raw != null){
+                //说明是缓存空值"" 返回错误 穿透结果
+                cacheMetrics.nullHit(keyPrefix);
+                putLocal(localCache, key, NULL_VALUE);
+                return null;
+            }
+            cacheMetrics.miss(keyPrefix);
+            // 4. 不存在，根据id查询数据库（同一个key本节点只查一次，其它线程等待结果）
+            return type.cast(singleFlight(key, () -> loadAndCache(key, id, time, unit, localCache, dbFallback, cacheNull)));
+        } finally {
+            cacheMetrics.recordGet(keyPrefix, begin);
         }
-        // 4. 不存在，根据id查询数据库
+    }
+
+    /**
+    *@Description: 批量查询+解决缓存穿透：一次MGET查redis，未命中的id一次批量查数据库，再用pipeline一次写回（不存在的写空值）
+    *@Param: [keyPrefix, ids, type, time, unit, dbFallback 根据一批id查询数据库的方法, idGetter 从查询结果中取id]
+    *@return: 按ids的顺序返回存在的数据（不存在的跳过）
+    */
+    public <R,ID> List<R> queryBatchWithPassThrough(String keyPrefix, List<ID> ids, Class<R> type, Long time, TimeUnit unit,
+                                                    Function<List<ID>, List<R>> dbFallback, Function<R, ID> idGetter){
+        long begin = System.nanoTime();
+        try {
+            if (ids == null || ids.isEmpty()) {
+                return new ArrayList<>();
+            }
+            // key -> 结果（NULL_VALUE 表示不存在）
+            Map<String, Object> found = new HashMap<>(ids.size() * 2);
+            // 1. 查本地缓存（重复的id只查一次，保持首次出现的顺序）
+            List<ID> redisIds = new ArrayList<>();
+            for (ID id : new LinkedHashSet<>(ids)) {
+                String key = keyPrefix + id;
+                Cache<String, Object> localCache = localCache(keyPrefix, key);
+                Object local = localCache == null ? null : localCache.get(key, false);
+                if (local != null) {
+                    recordLocalHit(keyPrefix, local);
+                    found.put(key, local);
+                } else {
+                    redisIds.add(id);
+                }
+            }
+            // 2. 一次MGET查redis
+            List<ID> missIds = new ArrayList<>();
+            if (!redisIds.isEmpty()) {
+                byte[][] rawKeys = new byte[redisIds.size()][];
+                for (int i = 0; i < rawKeys.length; i++) {
+                    rawKeys[i] = (keyPrefix + redisIds.get(i)).getBytes(StandardCharsets.UTF_8);
+                }
+                List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(rawKeys));
+                for (int i = 0; i < redisIds.size(); i++) {
+                    ID id = redisIds.get(i);
+                    String key = keyPrefix + id;
+                    byte[] raw = values == null ? null : values.get(i);
+                    if (raw == null) {
+                        cacheMetrics.miss(keyPrefix);
+                        missIds.add(id);
+                        continue;
+                    }
+                    if (raw.length == 0) {
+                        cacheMetrics.nullHit(keyPrefix);
+                    } else {
+                        cacheMetrics.hit(keyPrefix, "redis");
+                    }
+                    Object value = raw.length == 0 ? NULL_VALUE : decode(key, raw, type, false).data;
+                    found.put(key, value);
+                    putLocal(localCacheOf(keyPrefix, key), key, value);
+                }
+            }
+            // 3. 未命中的一次批量查数据库，pipeline写回
+            if (!missIds.isEmpty()) {
+                long loadBegin = System.nanoTime();
+                List<R> loaded = dbFallback.apply(missIds);
+                cacheMetrics.recordLoad(keyPrefix, loadBegin);
+                Map<String, byte[]> writes = new LinkedHashMap<>();
+                if (loaded != null) {
+                    for (R r : loaded) {
+                        String key = keyPrefix + idGetter.apply(r);
+                        found.put(key, r);
+                        cacheMetrics.write(keyPrefix);
+                        writes.put(key, encode(key, r, 0L));
+                    }
+                }
+                List<String> nullKeys = new ArrayList<>();
+                for (ID id : missIds) {
+                    String key = keyPrefix + id;
+                    if (!found.containsKey(key)) {
+                        found.put(key, NULL_VALUE);
+                        nullKeys.add(key);
+                    }
+                }
+                long ttlMillis = unit.toMillis(time);
+                long nullTtlMillis = TimeUnit.MINUTES.toMillis(RedisConstants.CACHE_NULL_TTL);
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (Map.Entry<String, byte[]> entry : writes.entrySet()) {
+                        connection.set(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue(),
+                                Expiration.milliseconds(ttlMillis), RedisStringCommands.SetOption.upsert());
+                    }
+                    for (String key : nullKeys) {
+                        connection.set(key.getBytes(StandardCharsets.UTF_8), new byte[0],
+                                Expiration.milliseconds(nullTtlMillis), RedisStringCommands.SetOption.upsert());
+                    }
+                    return null;
+                });
+                for (ID id : missIds) {
+                    String key = keyPrefix + id;
+                    putLocal(localCacheOf(keyPrefix, key), key, found.get(key));
+                }
+            }
+            // 4. 按输入顺序返回
+            List<R> result = new ArrayList<>(ids.size());
+            for (ID id : ids) {
+                Object value = found.get(keyPrefix + id);
+                if (value != null && value != NULL_VALUE) {
+                    result.add(type.cast(value));
+                }
+            }
+            return result;
+        } finally {
+            cacheMetrics.recordGet(keyPrefix, begin);
+        }
+    }
+
+    /**
+    *@Description: 查询+解决缓存击穿 => 互斥锁
+    * 本节点内 single-flight 合并，跨节点用redis互斥锁，只有持锁者查数据库
+    * 没拿到锁时等待持锁者的加载完成通知（最多等锁的有效期，超时后重新抢锁），同样缓存空值防止穿透
+    *@Param: [keyPrefix, id, type, time, unit, dbFallback]
+    *@return: R
+    */
+    public <R,ID> R queryWithMutex(String keyPrefix, ID id, Class<R> type, Long time, TimeUnit unit, Function<ID,R> dbFallback){
+        return queryWithMutex(keyPrefix, id, type, time, unit, dbFallback, true);
+    }
+
+    /**
+    *@Description: 查询+解决缓存击穿 => 互斥锁，cacheNull 为 false 时数据库不存在也不缓存空值
+    */
+    public <R,ID> R queryWithMutex(String keyPrefix, ID id, Class<R> type, Long time, TimeUnit unit, Function<ID,R> dbFallback, boolean cacheNull){
+        long begin = System.nanoTime();
+        try {
+            String key = keyPrefix + id;
+            Cache<String, Object> localCache = localCache(keyPrefix, key);
+            if (localCache != null) {
+                Object local = localCache.get(key, false);
+                if (local != null) {
+                    recordLocalHit(keyPrefix, local);
+                    return local == NULL_VALUE ? null : type.cast(local);
+                }
+            }
+            Object cached = lookup(key, type, localCache);
+            if (cached != MISS) {
+                if (cached == NULL_VALUE) {
+                    cacheMetrics.nullHit(keyPrefix);
+                    return null;
+                }
+                cacheMetrics.hit(keyPrefix, "redis");
+                return type.cast(cached);
+            }
+            cacheMetrics.miss(keyPrefix);
+            return type.cast(singleFlight(key, () -> {
+                String lockKey = lockKey(key);
+                while (true) {
+                    if (tryLock(lockKey)) {
+                        try {
+                            // doublecheck，可能是前一个持锁者刚写完缓存放了锁
+                            Object value = lookup(key, type, localCache);
+                            if (value != MISS) {
+                                return value == NULL_VALUE ? null : value;
+                            }
+                            R r = loadAndCache(key, id, time, unit, localCache, dbFallback, cacheNull);
+                            publishLoaded(key);
+                            return r;
+                        } finally {
+                            unLock(lockKey);
+                        }
+                    }
+                    // 先登记等待，再检查缓存，避免通知在登记之前就发出
+                    CompletableFuture<Void> waiter = loadWaiters.computeIfAbsent(key, k -> new CompletableFuture<>());
+                    Object value = lookup(key, type, localCache);
+                    if (value != MISS) {
+                        return value == NULL_VALUE ? null : value;
+                    }
+                    awaitLoaded(waiter);
+                    loadWaiters.remove(key, waiter);
+                    value = lookup(key, type, localCache);
+                    if (value != MISS) {
+                        return value == NULL_VALUE ? null : value;
+                    }
+                    // 持锁者失败或超时，重新抢锁
+                }
+            }));
+        } finally {
+            cacheMetrics.recordGet(keyPrefix, begin);
+        }
+    }
+
+    /**
+    *@Description: 查数据库并写入redis和本地缓存，不存在时缓存空值
+    */
+    private <R,ID> R loadAndCache(String key, ID id, Long time, TimeUnit unit, Cache<String, Object> localCache, Function<ID,R> dbFallback, boolean cacheNull){
+        long begin = System.nanoTime();
         R r = dbFallback.apply(id);
+        cacheMetrics.recordLoad(CacheMetrics.prefixOf(key), begin);
         // 5. 不存在，返回错误
         if(r == null){
+            if (!cacheNull) {
+                return null;
+            }
             // 将空值写入redis （避免缓存击穿问题）
             stringRedisTemplate.opsForValue().set(key,"", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+            putLocal(localCache, key, NULL_VALUE);
             // 返回错误信息
             return null;
         }
         // 6. 存在，写入redis
         set(key, r, time, unit);
+        putLocal(localCache, key, r);
         // 7. 返回数据
         return r;
     }
 
+    /**
+    *@Description: 查redis，返回 MISS / NULL_VALUE / 对象，命中时写入本地缓存
+    */
+    private Object lookup(String key, Class<?> type, Cache<String, Object> localCache){
+        byte[] raw = readRaw(key);
+        if (raw == null) {
+            return MISS;
+        }
+        Object value = raw.length == 0 ? NULL_VALUE : decode(key, raw, type, false).data;
+        putLocal(localCache, key, value);
+        return value;
+    }
+
+    /**
+    *@Description: 同一个key本节点同时只执行一次 loader，其它线程等待并共享结果（包括异常）
+    */
+    private Object singleFlight(String key, Supplier<?> loader){
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        try {
+            Object value = loader.get();
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private void publishLoaded(String key){
+        try {
+            stringRedisTemplate.convertAndSend(RedisConstants.CACHE_LOADED_CHANNEL, key);
+        } catch (Exception e) {
+            // 等待者在锁过期后会重新抢锁
+            log.warn("发布缓存加载完成通知失败，key:{}", key, e);
+        }
+    }
+
+    private void awaitLoaded(CompletableFuture<Void> waiter){
+        try {
+            waiter.get(RedisConstants.LOCK_SHOP_TTL, TimeUnit.SECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // 超时后重新抢锁
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待缓存加载被中断", e);
+        }
+    }
+
     /**
     *@Description: 查询+解决缓存击穿 => 逻辑过期
     *@Param: [keyPrefix, id, type, time, unit, dbFallback]
     *@return: R
     */
     public <R,ID> R queryWithLogicExpire(String keyPrefix, ID id, Class<R> type, Long time, TimeUnit unit, Function<ID,R> dbFallback) {
-        String key = keyPrefix + id;
-        // 1. 从redis中查询
-        String cacheJson = stringRedisTemplate.opsForValue().get(key);
-        // 2. 判断是否存在
-        if (StrUtil.isBlank(cacheJson)) {
-            //未命中 返回空
-            return null;
-        }
-        // 3. 存在，反序列化为对象
-        RedisData redisData = JSONUtil.toBean(cacheJson, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        // 4. 判断是否过期
-        if(!expireTime.isAfter(LocalDateTime.now())){
-            // 5.1 未过期 返回
+        long begin = System.nanoTime();
+        try {
+            String key = keyPrefix + id;
+            RefreshEntry entry = refreshEntry(key, id, time, unit, dbFallback);
+            // 0. 查本地缓存，逻辑上未过期才直接返回，过期的走redis（由redis这一层触发重建）
+            Cache<String, Object> localCache = localCache(keyPrefix, key);
+            if (localCache != null) {
+                RedisData local = (RedisData) localCache.get(key, false);
+                if (local != null && local.getExpireTime().isAfter(LocalDateTime.now())) {
+                    cacheMetrics.hit(keyPrefix, "local");
+                    refreshEarly(entry);
+                    return type.cast(local.getData());
+                }
+            }
+            // 1. 从redis中查询
+            byte[] raw = readRaw(key);
+            // 2. 判断是否存在
+            if (raw == null || raw.length == 0) {
+                //未命中 返回空
+                cacheMetrics.miss(keyPrefix);
+                return null;
+            }
+            // 3. 存在，反序列化为对象
+            Decoded<R> decoded = decode(key, raw, type, true);
+            R r = decoded.data;
+            LocalDateTime expireTime = toLocalDateTime(decoded.expireMillis);
+            if (entry != null) {
+                entry.expireMillis = decoded.expireMillis;
+            }
+            // 4. 判断是否过期
+            if(expireTime.isAfter(LocalDateTime.now())){
+                // 5.1 未过期 返回，接近过期时按概率提前刷新
+                cacheMetrics.hit(keyPrefix, "redis");
+                putLocal(localCache, key, new RedisData(expireTime, r));
+                refreshEarly(entry);
+                return r;
+            }
+            // 5.2 过期，需要缓存重建（按key去重，持有互斥锁的节点才查数据库）
+            cacheMetrics.stale(keyPrefix);
+            submitRebuild(key, id, time, unit, dbFallback, entry);
+            // 6.4 返回过期商品信息
             return r;
+        } finally {
+            cacheMetrics.recordGet(keyPrefix, begin);
+        }
+    }
+
+    /**
+    *@Description: 登记逻辑过期key，用于提前刷新；超过容量时不再登记（仍然在过期后读取时重建）
+    */
+    @SuppressWarnings("unchecked")
+    private <R,ID> RefreshEntry refreshEntry(String key, ID id, Long time, TimeUnit unit, Function<ID,R> dbFallback){
+        RefreshEntry entry = refreshEntries.get(key);
+        if (entry == null) {
+            if (refreshEntries.size() >= refreshMaxKeys) {
+                return null;
+            }
+            entry = refreshEntries.computeIfAbsent(key, k -> new RefreshEntry(key, id, time, unit, (Function<Object, Object>) dbFallback));
+        }
+        entry.lastAccess = System.currentTimeMillis();
+        return entry;
+    }
+
+    /**
+    *@Description: 概率提前过期（XFetch）：now + 扫描间隔 + 加载耗时 * beta * -ln(rand) >= 过期时间 时提前重建
+    */
+    private void refreshEarly(RefreshEntry entry){
+        if (entry == null || entry.expireMillis <= 0) {
+            return;
+        }
+        double gap = entry.loadMillis * refreshBeta * -Math.log(ThreadLocalRandom.current().nextDouble(Double.MIN_VALUE, 1.0));
+        if (System.currentTimeMillis() + refreshScanInterval + gap >= entry.expireMillis) {
+            earlyRebuildCount.increment();
+            submitRebuild(entry);
+        }
+    }
+
+    /**
+    *@Description: 定时扫描登记的key：移除长时间没有被查询的，其余按概率提前刷新
+    */
+    @Scheduled(fixedDelayString = "${hmdp.cache.refresh.scan-interval:1000}")
+    public void scanRefreshEntries(){
+        long idleBefore = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(refreshIdleSeconds);
+        for (Map.Entry<String, RefreshEntry> e : refreshEntries.entrySet()) {
+            if (e.getValue().lastAccess < idleBefore) {
+                refreshEntries.remove(e.getKey());
+            } else {
+                refreshEarly(e.getValue());
+            }
+        }
+    }
+
+    private void submitRebuild(RefreshEntry entry){
+        submitRebuild(entry.key, entry.id, entry.time, entry.unit, entry.dbFallback, entry);
+    }
+
+    /**
+    *@Description: 提交重建，同一个key同时只有一个重建；队列满时丢弃
+    */
+    private <R,ID> void submitRebuild(String key, ID id, Long time, TimeUnit unit, Function<ID,R> dbFallback, RefreshEntry entry){
+        if (!pendingRebuilds.add(key)) {
+            return;
         }
-        // 5.2 过期，需要缓存重建
-        // 6. 缓存重建
-        // 6.1 获取互斥锁
-        String lockKey = RedisConstants.LOCK_SHOP_KEY+id;
-        boolean isLock = tryLock(lockKey);
-        // 6.2 判断是否获取锁成功
-        // 6.3 成功 开启线程执行重建过程
-        if(isLock){
-            //可以在次再次检测redis缓存是否过期，doublecheck 匿名内部类
-            CACHE_REBUILD_EXXECUTOR.submit(new Runnable() {
-                @Override
-                public void run() {
-                    // 查询数据库
-                    R curR = dbFallback.apply(id);
-                    //写入redis
-                    CacheClient.this.setWithLogicExpire(key, curR, time, unit);
-                    //释放锁
-                    CacheClient.this.unLock(lockKey);
+        try {
+            cacheRebuildExecutor.execute(() -> {
+                // 6.1 获取互斥锁，跨节点只有一个节点重建
+                String lockKey = lockKey(key);
+                try {
+                    if (!tryLock(lockKey)) {
+                        return;
+                    }
+                    try {
+                        long begin = System.nanoTime();
+                        // 查询数据库
+                        R curR = dbFallback.apply(id);
+                        //写入redis
+                        setWithLogicExpire(key, curR, time, unit);
+                        long costMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+                        rebuildCount.increment();
+                        cacheMetrics.rebuild(CacheMetrics.prefixOf(key));
+                        cacheMetrics.recordLoad(CacheMetrics.prefixOf(key), begin);
+                        if (entry != null) {
+                            entry.expireMillis = System.currentTimeMillis() + unit.toMillis(time);
+                            // 加载耗时的指数加权平均
+                            entry.loadMillis = entry.loadMillis == 0 ? costMillis : (entry.loadMillis * 7 + costMillis) / 8;
+                        }
+                        //删除本节点的旧数据，下次从redis读到新数据
+                        evictLocal(key);
+                    } finally {
+                        //释放锁
+                        unLock(lockKey);
+                    }
+                } finally {
+                    pendingRebuilds.remove(key);
                 }
             });
+        } catch (RejectedExecutionException e) {
+            pendingRebuilds.remove(key);
+            rejectedRebuildCount.increment();
         }
-        // 6.4 返回过期商品信息
-        return r;
+    }
+
+    /**
+    *@Description: 提前刷新的统计：登记key数、排队中的重建数、重建次数、提前重建次数、被丢弃次数、平均加载耗时
+    */
+    public Map<String, Object> refreshStats(){
+        long loadMillis = 0;
+        int loaded = 0;
+        for (RefreshEntry entry : refreshEntries.values()) {
+            if (entry.loadMillis > 0) {
+                loadMillis += entry.loadMillis;
+                loaded++;
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("trackedKeys", refreshEntries.size());
+        stats.put("pendingRebuilds", pendingRebuilds.size());
+        stats.put("queuedRebuilds", cacheRebuildExecutor.getQueue().size());
+        stats.put("rebuilds", rebuildCount.sum());
+        stats.put("earlyRebuilds", earlyRebuildCount.sum());
+        stats.put("rejectedRebuilds", rejectedRebuildCount.sum());
+        stats.put("avgLoadMillis", loaded == 0 ? 0 : loadMillis / loaded);
+        return stats;
+    }
+
+    private static class RefreshEntry {
+        private final String key;
+        private final Object id;
+        private final Long time;
+        private final TimeUnit unit;
+        private final Function<Object, Object> dbFallback;
+        // 逻辑过期时间（毫秒），0表示还未读取到
+        private volatile long expireMillis;
+        private volatile long lastAccess;
+        // 加载耗时（毫秒，指数加权平均）
+        private volatile long loadMillis;
+
+        private RefreshEntry(String key, Object id, Long time, TimeUnit unit, Function<Object, Object> dbFallback) {
+            this.key = key;
+            this.id = id;
+            this.time = time;
+            this.unit = unit;
+            this.dbFallback = dbFallback;
+        }
+    }
+
+    private void recordLocalHit(String keyPrefix, Object local){
+        if (local == NULL_VALUE) {
+            cacheMetrics.nullHit(keyPrefix);
+        } else {
+            cacheMetrics.hit(keyPrefix, "local");
+        }
+    }
+
+    private void putLocal(Cache<String, Object> localCache, String key, Object value){
+        if (localCache != null) {
+            localCache.put(key, value);
+        }
+    }
+
+    /**
+    *@Description: 重建缓存的互斥锁key，商铺沿用 lock:shop:{id}，其它为 lock:{缓存key}
+    */
+    private String lockKey(String key){
+        if (key.startsWith(RedisConstants.CACHE_SHOP_KEY)) {
+            return RedisConstants.LOCK_SHOP_KEY + key.substring(RedisConstants.CACHE_SHOP_KEY.length());
+        }
+        return "lock:" + key;
     }
 
     private boolean tryLock(String key){
         Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", RedisConstants.LOCK_SHOP_TTL, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);   //转成基本类型返回，如果直接返回，拆箱的时候可能会造成空指针
+        boolean acquired = BooleanUtil.isTrue(flag);   //转成基本类型返回，如果直接返回，拆箱的时候可能会造成空指针
+        cacheMetrics.lock(CacheMetrics.prefixOf(key), acquired);
+        return acquired;
     }
 
     private void unLock(String key){
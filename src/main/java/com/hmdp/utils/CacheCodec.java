@@ -0,0 +1,27 @@
+package com.hmdp.utils;
+
+/**
+ * @ClassName: CacheCodec
+ * @Description: 缓存值的编解码器（SPI），可以通过 CacheClient.registerCodec 注册新的实现，按key前缀选择
+ * 每个编解码器有唯一的 tag，写在缓存值的头部，读取时按 tag 选择解码器，所以切换编解码器后旧数据仍然可读
+ * @Version: 1.0
+ */
+public interface CacheCodec {
+
+    /**
+    *@Description: 编解码器名称（配置中使用）
+    */
+    String name();
+
+    /**
+    *@Description: 写在缓存值头部的标识，不同实现之间不能重复
+    */
+    byte tag();
+
+    byte[] encode(Object value);
+
+    /**
+    *@Description: 从 bytes[offset, offset+length) 解码
+    */
+    <T> T decode(byte[] bytes, int offset, int length, Class<T> type);
+}
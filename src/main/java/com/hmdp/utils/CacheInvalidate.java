@@ -0,0 +1,21 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * @ClassName: CacheInvalidate
+ * @Description: 方法成功返回后删除缓存（redis + 所有节点的本地缓存），key模板与 @Cached 相同
+ * 在事务中调用时走缓存失效发件箱：事务提交后删除，并延迟双删
+ * @Version: 1.0
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface CacheInvalidate {
+
+    String[] key();
+}
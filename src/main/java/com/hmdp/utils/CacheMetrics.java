@@ -0,0 +1,164 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @ClassName: CacheMetrics
+ * @Description: 按key前缀统计的缓存指标，导出为 Prometheus 文本格式
+ * 计数器：hit（按 tier = local/redis 区分）、miss、null_hit（命中空值）、stale（逻辑过期后返回旧值）、rebuild、
+ *        write、delete、lock（按 result = acquired/contended 区分）
+ * 直方图：get（一次查询的总耗时）、load（查数据库并回填的耗时），单位秒
+ * @Version: 1.0
+ */
+
+@Component
+public class CacheMetrics {
+
+    private static final String COUNTER_NAME = "hmdp_cache_events_total";
+    private static final String HISTOGRAM_PREFIX = "hmdp_cache_";
+
+    // 直方图桶的上界（毫秒）
+    private static final double[] BUCKETS_MILLIS = {0.5, 1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500};
+
+    // "prefix|event|标签" -> 计数
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    // "prefix|name" -> 直方图
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    public void hit(String prefix, String tier){
+        count(prefix, "hit", "tier", tier);
+    }
+
+    public void miss(String prefix){
+        count(prefix, "miss", null, null);
+    }
+
+    public void nullHit(String prefix){
+        count(prefix, "null_hit", null, null);
+    }
+
+    public void stale(String prefix){
+        count(prefix, "stale", null, null);
+    }
+
+    public void rebuild(String prefix){
+        count(prefix, "rebuild", null, null);
+    }
+
+    public void write(String prefix){
+        count(prefix, "write", null, null);
+    }
+
+    public void delete(String prefix){
+        count(prefix, "delete", null, null);
+    }
+
+    public void lock(String prefix, boolean acquired){
+        count(prefix, "lock", "result", acquired ? "acquired" : "contended");
+    }
+
+    public void recordGet(String prefix, long startNanos){
+        histogram(prefix, "get").record(System.nanoTime() - startNanos);
+    }
+
+    public void recordLoad(String prefix, long startNanos){
+        histogram(prefix, "load").record(System.nanoTime() - startNanos);
+    }
+
+    /**
+    *@Description: 从完整key推出前缀（最后一个冒号及之前的部分），用于只有完整key的方法
+    */
+    public static String prefixOf(String key){
+        int index = key.lastIndexOf(':');
+        return index < 0 ? key : key.substring(0, index + 1);
+    }
+
+    private void count(String prefix, String event, String label, String value){
+        String name = prefix + "|" + event + "|" + (label == null ? "" : label + "=\"" + value + "\"");
+        LongAdder adder = counters.get(name);
+        if (adder == null) {
+            adder = counters.computeIfAbsent(name, k -> new LongAdder());
+        }
+        adder.increment();
+    }
+
+    private Histogram histogram(String prefix, String name){
+        String key = prefix + "|" + name;
+        Histogram histogram = histograms.get(key);
+        if (histogram == null) {
+            histogram = histograms.computeIfAbsent(key, k -> new Histogram());
+        }
+        return histogram;
+    }
+
+    /**
+    *@Description: Prometheus 文本格式
+    */
+    public String scrape(){
+        StringBuilder sb = new StringBuilder();
+        sb.append("# TYPE ").append(COUNTER_NAME).append(" counter\n");
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+            String[] parts = entry.getKey().split("\\|", 3);
+            sb.append(COUNTER_NAME).append("{prefix=\"").append(parts[0]).append("\",event=\"").append(parts[1]).append('"');
+            if (!parts[2].isEmpty()) {
+                sb.append(',').append(parts[2]);
+            }
+            sb.append("} ").append(entry.getValue().sum()).append('\n');
+        }
+        Map<String, Map<String, Histogram>> byName = new TreeMap<>();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            String[] parts = entry.getKey().split("\\|", 2);
+            byName.computeIfAbsent(parts[1], k -> new TreeMap<>()).put(parts[0], entry.getValue());
+        }
+        for (Map.Entry<String, Map<String, Histogram>> byPrefix : byName.entrySet()) {
+            String metric = HISTOGRAM_PREFIX + byPrefix.getKey() + "_seconds";
+            sb.append("# TYPE ").append(metric).append(" histogram\n");
+            for (Map.Entry<String, Histogram> entry : byPrefix.getValue().entrySet()) {
+                entry.getValue().write(sb, metric, entry.getKey());
+            }
+        }
+        return sb.toString();
+    }
+
+    private static class Histogram {
+        private final LongAdder[] buckets = new LongAdder[BUCKETS_MILLIS.length + 1];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumNanos = new LongAdder();
+
+        private Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        private void record(long nanos){
+            double millis = nanos / 1_000_000.0;
+            int i = 0;
+            while (i < BUCKETS_MILLIS.length && millis > BUCKETS_MILLIS[i]) {
+                i++;
+            }
+            buckets[i].increment();
+            count.increment();
+            sumNanos.add(nanos);
+        }
+
+        private void write(StringBuilder sb, String metric, String prefix){
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                String le = i < BUCKETS_MILLIS.length ? String.valueOf(BUCKETS_MILLIS[i] / 1000) : "+Inf";
+                sb.append(metric).append("_bucket{prefix=\"").append(prefix).append("\",le=\"").append(le).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            sb.append(metric).append("_sum{prefix=\"").append(prefix).append("\"} ")
+                    .append(sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1)).append('\n');
+            sb.append(metric).append("_count{prefix=\"").append(prefix).append("\"} ").append(count.sum()).append('\n');
+        }
+    }
+}
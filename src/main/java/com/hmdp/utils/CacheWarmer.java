@@ -0,0 +1,281 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * @ClassName: CacheWarmer
+ * @Description: 启动时预热缓存
+ * 1. 商铺：按id范围分给 threads 个线程，每个线程在自己的范围内键集分页读取 tb_shop，每批用pipeline写入 cache:shop:{id} 和 shop:geo:{typeId}
+ * 2. 商铺类型：写入 cache:shoptype
+ * 3. 进行中/未开始的秒杀券：缓存秒杀时间；redis中没有库存key时（redis数据丢失）先从订单表恢复已下单用户，再按数据库库存初始化
+ *    已存在的库存不覆盖（秒杀进行中redis库存才是准的），只加载分片数和去重模式到本地
+ * 作为 ApplicationRunner 同步执行，spring boot 在所有 runner 结束后才把就绪状态置为 ACCEPTING_TRAFFIC（/admin/ready）
+ * 滚动发布时多个节点先后启动，skip-within-seconds 内已有节点预热过的，跳过 redis 部分
+ * @Version: 1.0
+ */
+
+@Slf4j
+@Component
+public class CacheWarmer implements ApplicationRunner {
+
+    private static final String WARMUP_MARKER_KEY = "cache:warmup";
+    private static final String LOCK_NAME = "cache:warmup";
+
+    @Value("${hmdp.warmup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.warmup.threads:4}")
+    private int threads;
+
+    @Value("${hmdp.warmup.batch-size:500}")
+    private int batchSize;
+
+    @Value("${hmdp.warmup.skip-within-seconds:600}")
+    private long skipWithinSeconds;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisScriptRegistry redisScriptRegistry;
+
+    @Autowired
+    private CacheClient cacheClient;
+
+    @Autowired
+    private IShopService shopService;
+
+    @Autowired
+    private IShopTypeService shopTypeService;
+
+    @Autowired
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Autowired
+    private SeckillStockSharding seckillStockSharding;
+
+    @Autowired
+    private SeckillBuyerDedup seckillBuyerDedup;
+
+    @Autowired
+    private IVoucherOrderService voucherOrderService;
+
+    // 最近一次预热的统计
+    private final Map<String, Object> stats = new LinkedHashMap<>();
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        try {
+            // 秒杀券每个节点都要加载本地信息，redis部分已存在时不覆盖
+            warmSeckillVouchers();
+            Boolean first = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(WARMUP_MARKER_KEY, LocalDateTime.now().toString(), skipWithinSeconds, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(first)) {
+                warmShopTypes();
+                warmShops();
+            } else {
+                log.info("{}秒内已有节点预热过商铺缓存，跳过", skipWithinSeconds);
+            }
+            synchronized (stats) {
+                stats.put("millis", System.currentTimeMillis() - begin);
+            }
+            log.info("缓存预热完成：{}", stats());
+        } catch (Exception e) {
+            // 预热失败不影响启动，缓存按需加载
+            stringRedisTemplate.delete(WARMUP_MARKER_KEY);
+            log.error("缓存预热失败", e);
+        }
+    }
+
+    public Map<String, Object> stats(){
+        synchronized (stats) {
+            return new LinkedHashMap<>(stats);
+        }
+    }
+
+    private void warmShops() throws Exception {
+        Shop min = shopService.query().select("id").orderByAsc("id").last("LIMIT 1").one();
+        Shop max = shopService.query().select("id").orderByDesc("id").last("LIMIT 1").one();
+        if (min == null) {
+            return;
+        }
+        long minId = min.getId();
+        long maxId = max.getId();
+        int parts = (int) Math.max(1, Math.min(threads, (maxId - minId) / batchSize + 1));
+        long span = (maxId - minId) / parts + 1;
+        AtomicLong count = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(parts, new NamedThreadFactory("cache-warmup-", false));
+        try {
+            List<Future<?>> futures = new ArrayList<>(parts);
+            for (int i = 0; i < parts; i++) {
+                // 范围 [from, to)
+                long from = minId + span * i;
+                long to = Math.min(maxId + 1, from + span);
+                futures.add(executor.submit(() -> warmShopRange(from, to, count)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        synchronized (stats) {
+            stats.put("shops", count.get());
+        }
+    }
+
+    private void warmShopRange(long from, long to, AtomicLong count){
+        long lastId = from - 1;
+        while (true) {
+            List<Shop> shops = shopService.query()
+                    .ge("id", from)
+                    .gt("id", lastId)
+                    .lt("id", to)
+                    .orderByAsc("id")
+                    .last("LIMIT " + batchSize)
+                    .list();
+            if (shops.isEmpty()) {
+                return;
+            }
+            Map<String, Shop> values = new HashMap<>(shops.size() * 2);
+            for (Shop shop : shops) {
+                values.put(RedisConstants.CACHE_SHOP_KEY + shop.getId(), shop);
+            }
+            cacheClient.setBatch(values, RedisConstants.CACHE_SHOP_TTL, RedisConstants.CACHE_SHOP_TTL_JITTER, TimeUnit.MINUTES);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Shop shop : shops) {
+                    if (shop.getX() == null || shop.getY() == null) {
+                        continue;
+                    }
+                    connection.geoAdd((RedisConstants.SHOP_GEO_KEY + shop.getTypeId()).getBytes(StandardCharsets.UTF_8),
+                            new Point(shop.getX(), shop.getY()),
+                            shop.getId().toString().getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+            count.addAndGet(shops.size());
+            lastId = shops.get(shops.size() - 1).getId();
+            if (shops.size() < batchSize) {
+                return;
+            }
+        }
+    }
+
+    private void warmShopTypes(){
+        List<ShopType> shopTypes = shopTypeService.query().orderByAsc("sort").list();
+        if (!shopTypes.isEmpty()) {
+            // 与 ShopTypeServiceImpl.getTypeList 的格式一致
+            stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOPTYPE_KEY, JSONUtil.toJsonStr(shopTypes));
+        }
+        synchronized (stats) {
+            stats.put("shopTypes", shopTypes.size());
+        }
+    }
+
+    private void warmSeckillVouchers(){
+        List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                .gt("end_time", LocalDateTime.now())
+                .list();
+        int initialized = 0;
+        ILock lock = new SimpleRedisLock(LOCK_NAME, stringRedisTemplate, redisScriptRegistry);
+        for (SeckillVoucher voucher : vouchers) {
+            seckillVoucherService.cacheTimeWindow(voucher);
+            Long voucherId = voucher.getVoucherId();
+            if (stockExists(voucherId)) {
+                seckillStockSharding.shardCount(voucherId);
+                seckillBuyerDedup.mode(voucherId);
+                continue;
+            }
+            // redis中库存丢失，多个节点同时启动时只初始化一次
+            if (!lock.tryLock(60)) {
+                continue;
+            }
+            try {
+                if (!stockExists(voucherId)) {
+                    // 先从订单表恢复已下单用户，再写库存key，库存key出现时一人一单已经生效
+                    seckillBuyerDedup.init(voucherId);
+                    long expireAt = seckillBuyerDedup.expireAt(voucher.getEndTime());
+                    long buyers = restoreBuyers(voucherId, seckillStockSharding.initialShards(voucher.getStock()), expireAt);
+                    seckillStockSharding.initStock(voucherId, voucher.getStock(), expireAt);
+                    initialized++;
+                    log.warn("redis中没有秒杀库存，按数据库初始化，voucherId:{}，stock:{}，已下单用户:{}", voucherId, voucher.getStock(), buyers);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        synchronized (stats) {
+            stats.put("seckillVouchers", vouchers.size());
+            stats.put("seckillStockInitialized", initialized);
+        }
+    }
+
+    /**
+    *@Description: 按 (voucher_id, id) 键集分页读取订单，把下单用户写回去重结构
+    *@return: 恢复的用户数
+    */
+    private long restoreBuyers(Long voucherId, int shards, long expireAt){
+        long lastId = 0;
+        long count = 0;
+        while (true) {
+            List<VoucherOrder> orders = voucherOrderService.query()
+                    .select("id", "user_id")
+                    .eq("voucher_id", voucherId)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + batchSize)
+                    .list();
+            if (orders.isEmpty()) {
+                return count;
+            }
+            seckillBuyerDedup.addAll(voucherId,
+                    orders.stream().map(VoucherOrder::getUserId).collect(Collectors.toList()), shards, expireAt);
+            count += orders.size();
+            if (orders.size() < batchSize) {
+                return count;
+            }
+            lastId = orders.get(orders.size() - 1).getId();
+        }
+    }
+
+    private boolean stockExists(Long voucherId){
+        return Boolean.TRUE.equals(stringRedisTemplate.hasKey(seckillStockSharding.stockKey(voucherId, -1)))
+                || Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.SECKILL_SHARDS_KEY + voucherId));
+    }
+}
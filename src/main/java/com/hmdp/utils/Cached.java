@@ -0,0 +1,65 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @ClassName: Cached
+ * @Description: 方法返回值缓存，由 CachedAspect 通过 CacheClient 实现
+ * 例：@Cached(key = "cache:user:dto:#{#id}", ttl = 30, unit = TimeUnit.MINUTES)
+ * key 中 #{ 之前的部分作为key前缀（本地缓存、指标、编解码器都按前缀区分），#{...} 是 SpEL 表达式，可以引用方法参数
+ * 缓存的是方法的返回值（按声明的返回类型反序列化），所以只能用在返回实体、DTO或其数组的service方法上，不能返回 Result 或集合
+ * 方法抛出异常时不缓存；本地缓存（含热key的热点本地缓存）命中时返回共享对象，调用方不要修改
+ * @Version: 1.0
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Cached {
+
+    /**
+    *@Description: key模板
+    */
+    String key();
+
+    long ttl() default 30;
+
+    TimeUnit unit() default TimeUnit.MINUTES;
+
+    /**
+    *@Description: 返回null时是否缓存空值（防止缓存穿透），逻辑过期策略不缓存空值
+    */
+    boolean cacheNull() default true;
+
+    Strategy strategy() default Strategy.PASS_THROUGH;
+
+    /**
+    *@Description: 是否开启本地缓存（一级缓存）
+    */
+    boolean local() default false;
+
+    /**
+    *@Description: 没有开启本地缓存时，热key是否自动放入热点本地缓存；调用方会修改返回值时设为false
+    */
+    boolean hotLocal() default true;
+
+    int localSize() default 1000;
+
+    /**
+    *@Description: 本地缓存有效期（秒）
+    */
+    long localTtl() default 10;
+
+    enum Strategy {
+        // 缓存穿透：缓存空值 + 本节点合并请求
+        PASS_THROUGH,
+        // 缓存击穿：互斥锁重建
+        MUTEX,
+        // 缓存击穿：逻辑过期，返回旧值异步重建
+        LOGIC_EXPIRE
+    }
+}
@@ -0,0 +1,165 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.ICacheOutboxService;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.common.TemplateParserContext;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * @ClassName: CachedAspect
+ * @Description: @Cached / @CacheInvalidate 的切面
+ * @Version: 1.0
+ */
+
+@Aspect
+@Component
+public class CachedAspect {
+
+    private static final String TEMPLATE_PREFIX = "#{";
+
+    private final ExpressionParser parser = new SpelExpressionParser();
+    private final TemplateParserContext templateContext = new TemplateParserContext(TEMPLATE_PREFIX, "}");
+    private final ParameterNameDiscoverer parameterNameDiscoverer = new DefaultParameterNameDiscoverer();
+    private final Map<String, Expression> expressions = new ConcurrentHashMap<>();
+
+    @Autowired
+    private CacheClient cacheClient;
+
+    // 发件箱服务也会被切面代理，延迟注入避免循环依赖
+    @Lazy
+    @Autowired
+    private ICacheOutboxService cacheOutboxService;
+
+    @Around("@annotation(cached)")
+    public Object cached(ProceedingJoinPoint joinPoint, Cached cached) throws Throwable {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        String key = key(cached.key(), joinPoint, method);
+        String keyPrefix = keyPrefix(cached.key());
+        String id = key.substring(keyPrefix.length());
+        if (cached.local()) {
+            cacheClient.enableLocalCacheIfAbsent(keyPrefix, cached.localSize(), cached.localTtl(), TimeUnit.SECONDS);
+        }
+        if (!cached.hotLocal()) {
+            cacheClient.disableHotLocalCache(keyPrefix);
+        }
+        @SuppressWarnings("unchecked")
+        Class<Object> type = (Class<Object>) method.getReturnType();
+        checkReturnType(method, type);
+        Function<String, Object> loader = ignored -> proceed(joinPoint);
+        try {
+            switch (cached.strategy()) {
+                case MUTEX:
+                    return cacheClient.queryWithMutex(keyPrefix, id, type, cached.ttl(), cached.unit(), loader, cached.cacheNull());
+                case LOGIC_EXPIRE:
+                    // 逻辑过期的loader登记在刷新表里，之后由刷新线程调用，不能引用本次调用的 joinPoint，
+                    // 用目标对象、方法和本次的参数（与key对应）重新调用
+                    Object target = joinPoint.getTarget();
+                    Object[] args = joinPoint.getArgs().clone();
+                    Function<String, Object> refreshLoader = ignored -> invoke(target, method, args);
+                    Object value = cacheClient.queryWithLogicExpire(keyPrefix, id, type, cached.ttl(), cached.unit(), refreshLoader);
+                    if (value == null) {
+                        // 逻辑过期的key没有预热时，首次查询直接加载并写入
+                        value = proceed(joinPoint);
+                        if (value != null) {
+                            cacheClient.setWithLogicExpire(key, value, cached.ttl(), cached.unit());
+                        }
+                    }
+                    return value;
+                default:
+                    return cacheClient.queryWithPassThrough(keyPrefix, id, type, cached.ttl(), cached.unit(), loader, cached.cacheNull());
+            }
+        } catch (ProceedException e) {
+            throw e.getCause();
+        }
+    }
+
+    @AfterReturning("@annotation(cacheInvalidate)")
+    public void invalidate(JoinPoint joinPoint, CacheInvalidate cacheInvalidate) {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        boolean inTransaction = TransactionSynchronizationManager.isActualTransactionActive();
+        for (String template : cacheInvalidate.key()) {
+            String key = key(template, joinPoint, method);
+            if (inTransaction) {
+                cacheOutboxService.invalidateAfterCommit(key);
+            } else {
+                cacheClient.delete(key);
+            }
+        }
+    }
+
+    private String key(String template, JoinPoint joinPoint, Method method){
+        if (!template.contains(TEMPLATE_PREFIX)) {
+            return template;
+        }
+        Expression expression = expressions.computeIfAbsent(template, t -> parser.parseExpression(t, templateContext));
+        MethodBasedEvaluationContext context = new MethodBasedEvaluationContext(
+                joinPoint.getTarget(), method, joinPoint.getArgs(), parameterNameDiscoverer);
+        return expression.getValue(context, String.class);
+    }
+
+    private static String keyPrefix(String template){
+        int index = template.indexOf(TEMPLATE_PREFIX);
+        return index < 0 ? template : template.substring(0, index);
+    }
+
+    /**
+    *@Description: 缓存值按声明的返回类型反序列化：Result（data会变成Map，失败结果也会被缓存）和集合（拿不到元素类型）不能缓存
+    */
+    private static void checkReturnType(Method method, Class<?> type){
+        if (Result.class.isAssignableFrom(type) || Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type)) {
+            throw new IllegalStateException("@Cached 方法需要返回实体、DTO或其数组：" + method);
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args){
+        try {
+            return AopUtils.invokeJoinpointUsingReflection(target, method, args);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new ProceedException(e);
+        }
+    }
+
+    private static Object proceed(ProceedingJoinPoint joinPoint){
+        try {
+            return joinPoint.proceed();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new ProceedException(e);
+        }
+    }
+
+    /**
+    *@Description: 包装被缓存方法抛出的受检异常，切面外层再拆开
+    */
+    private static class ProceedException extends RuntimeException {
+        private ProceedException(Throwable cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.hmdp.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * @ClassName: HotKeyDetector
+ * @Description: 热key探测：滑动窗口上的 count-min sketch
+ * 窗口分成 slots 个时间片，每个时间片一个 depth*width 的计数矩阵，定时轮转并清空最老的时间片
+ * 一个key的估计值 = 每行在所有时间片上的计数和，取各行的最小值（只会高估不会低估）
+ * 按 1/sampleOneIn 的概率采样，命中采样时计数加 sampleOneIn，减少高并发下的写竞争
+ * 估计值超过阈值的key记为热key（最多 capacity 个），轮转时重新估计，低于阈值的移除
+ * @Version: 1.0
+ */
+
+@Component
+public class HotKeyDetector {
+
+    private static final int DEPTH = 4;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    @Value("${hmdp.hotkey.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.hotkey.width:4096}")
+    private int width;
+
+    @Value("${hmdp.hotkey.slots:6}")
+    private int slots;
+
+    /**
+    *@Description: 窗口内（slots 个时间片）访问次数达到该值视为热key
+    */
+    @Value("${hmdp.hotkey.threshold:3000}")
+    private int threshold;
+
+    @Value("${hmdp.hotkey.sample-one-in:16}")
+    private int sampleOneIn;
+
+    @Value("${hmdp.hotkey.capacity:200}")
+    private int capacity;
+
+    private AtomicIntegerArray[] sketches;
+
+    private volatile int current;
+
+    // 热key -> 最近一次估计值
+    private final Map<String, Integer> hotKeys = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init(){
+        sketches = new AtomicIntegerArray[slots];
+        for (int i = 0; i < slots; i++) {
+            sketches[i] = new AtomicIntegerArray(DEPTH * width);
+        }
+    }
+
+    /**
+    *@Description: 记录一次访问
+    *@return: 该key当前是否是热key
+    */
+    public boolean record(String key){
+        if (!enabled) {
+            return false;
+        }
+        if (sampleOneIn <= 1 || ThreadLocalRandom.current().nextInt(sampleOneIn) == 0) {
+            AtomicIntegerArray sketch = sketches[current];
+            int hash = key.hashCode();
+            for (int row = 0; row < DEPTH; row++) {
+                sketch.addAndGet(index(row, hash), Math.max(1, sampleOneIn));
+            }
+            if (!hotKeys.containsKey(key)) {
+                int estimate = estimate(hash);
+                if (estimate >= threshold && hotKeys.size() < capacity) {
+                    hotKeys.put(key, estimate);
+                }
+            }
+        }
+        return hotKeys.containsKey(key);
+    }
+
+    public boolean isHot(String key){
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+    *@Description: 当前估计值最大的 n 个热key
+    */
+    public List<HotKey> top(int n){
+        List<HotKey> list = new ArrayList<>();
+        for (String key : hotKeys.keySet()) {
+            list.add(new HotKey(key, estimate(key.hashCode())));
+        }
+        list.sort(Comparator.comparingInt(HotKey::getEstimate).reversed());
+        return list.size() > n ? new ArrayList<>(list.subList(0, n)) : list;
+    }
+
+    /**
+    *@Description: 轮转时间片：清空最老的时间片作为新的当前时间片，重新评估热key
+    */
+    @Scheduled(fixedRateString = "${hmdp.hotkey.slot-millis:10000}")
+    public void rotate(){
+        if (!enabled) {
+            return;
+        }
+        int next = (current + 1) % slots;
+        AtomicIntegerArray sketch = sketches[next];
+        for (int i = 0; i < sketch.length(); i++) {
+            sketch.set(i, 0);
+        }
+        current = next;
+        for (Map.Entry<String, Integer> entry : hotKeys.entrySet()) {
+            int estimate = estimate(entry.getKey().hashCode());
+            if (estimate < threshold) {
+                hotKeys.remove(entry.getKey());
+            } else {
+                entry.setValue(estimate);
+            }
+        }
+    }
+
+    private int estimate(int hash){
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int index = index(row, hash);
+            int sum = 0;
+            for (AtomicIntegerArray sketch : sketches) {
+                sum += sketch.get(index);
+            }
+            min = Math.min(min, sum);
+        }
+        return min;
+    }
+
+    private int index(int row, int hash){
+        int h = (hash ^ SEEDS[row]) * 0x5BD1E995;
+        h ^= h >>> 15;
+        return row * width + ((h & 0x7FFFFFFF) % width);
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class HotKey {
+        private String key;
+        // 窗口内访问次数估计值
+        private int estimate;
+    }
+}
@@ -0,0 +1,72 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @ClassName: IndexRebuildExecutor
+ * @Description: 全量重建索引的专用线程池
+ * 商铺索引（布隆过滤器等）的全量重建要扫全表，放在定时任务线程里会长时间占用调度线程池，
+ * 饿死 pending 订单回收这类短周期的定时任务；定时任务只负责把重建提交到这里
+ * 同一个重建任务还在排队或执行时不重复提交
+ * @Version: 1.0
+ */
+
+@Slf4j
+@Component
+public class IndexRebuildExecutor {
+
+    @Value("${hmdp.index.rebuild-threads:2}")
+    private int threads;
+
+    private ThreadPoolExecutor executor;
+
+    // 排队中或执行中的任务名
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    private void init(){
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new NamedThreadFactory("index-rebuild-", true));
+    }
+
+    @PreDestroy
+    private void destroy(){
+        executor.shutdownNow();
+    }
+
+    /**
+    *@Description: 提交重建任务，返回false表示同名任务还没执行完，本次跳过
+    */
+    public boolean submit(String name, Runnable task){
+        if (!pending.add(name)) {
+            log.info("索引重建任务仍在进行，跳过本次，name:{}", name);
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("索引重建任务失败，name:{}", name, e);
+                } finally {
+                    pending.remove(name);
+                }
+            });
+            return true;
+        } catch (RuntimeException e) {
+            pending.remove(name);
+            throw e;
+        }
+    }
+}
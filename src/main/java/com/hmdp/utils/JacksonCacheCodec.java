@@ -0,0 +1,76 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * @ClassName: JacksonCacheCodec
+ * @Description: 基于jackson流式解析的编解码器
+ * json:  流式JSON，比 hutool 先解析成 JSONObject 再转 bean 少一次中间对象
+ * smile: 二进制JSON（字段名、数字都是二进制编码，并且会复用重复的字段名），体积和解析开销更小
+ * @Version: 1.0
+ */
+public class JacksonCacheCodec implements CacheCodec {
+
+    public static final String JSON = "json";
+    public static final String SMILE = "smile";
+
+    private final String name;
+    private final byte tag;
+    private final ObjectMapper mapper;
+
+    private JacksonCacheCodec(String name, byte tag, JsonFactory factory) {
+        this.name = name;
+        this.tag = tag;
+        this.mapper = new ObjectMapper(factory)
+                .registerModule(new JavaTimeModule())
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+                // 与 web 层的 jackson 配置一致（日期ISO字符串、忽略null），缓存的对象返回给前端时输出与不缓存时相同
+                .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+    }
+
+    public static JacksonCacheCodec json(){
+        return new JacksonCacheCodec(JSON, (byte) 1, new JsonFactory());
+    }
+
+    public static JacksonCacheCodec smile(){
+        return new JacksonCacheCodec(SMILE, (byte) 2, new SmileFactory());
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public byte tag() {
+        return tag;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        try {
+            return mapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, int offset, int length, Class<T> type) {
+        try {
+            return mapper.readValue(bytes, offset, length, type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -17,14 +17,43 @@ public class RedisConstants {
     public static final Long CACHE_NULL_TTL = 2L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
+    // 批量预热时在TTL上随机增加的分钟数，避免预热的商铺同时过期
+    public static final Long CACHE_SHOP_TTL_JITTER = 10L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final int CACHE_SHOP_LOCAL_SIZE = 10000;
+    public static final Long CACHE_SHOP_LOCAL_TTL = 10L;
+    // 博客列表展示的用户摘要（UserDTO）
+    public static final String CACHE_USER_DTO_KEY = "cache:user:dto:";
+    // 店铺的优惠券列表（含秒杀库存，有效期短）
+    public static final String CACHE_VOUCHER_SHOP_KEY = "cache:voucher:shop:";
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+    public static final String CACHE_USER_INFO_KEY = "cache:user:info:";
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_LOADED_CHANNEL = "cache:loaded";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_SHARDS_KEY = "seckill:shards:";
+    public static final String SECKILL_BUYERS_KEY = "seckill:buyers:";
+    public static final String SECKILL_DEDUP_KEY = "seckill:dedup:";
+    public static final String SECKILL_RECONCILE_KEY = "seckill:reconcile:";
+    public static final String STREAM_ORDER_KEY = "stream.order";
+    public static final String STREAM_ORDER_GROUP = "g1";
+    public static final String STREAM_ORDER_DLQ_KEY = "stream.order.dlq";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_GEO_REBUILDING_KEY = "shop:geo:rebuilding";
+    public static final Long SHOP_GEO_REBUILD_TTL = 30L;
+    public static final String SHOP_RANK_KEY = "shop:rank:";
+    public static final String SHOP_RANK_REBUILDING_KEY = "shop:rank:rebuilding";
+    public static final String SHOP_RANK_BUILT_KEY = "shop:rank:built";
+    public static final Long SHOP_RANK_REBUILD_TTL = 30L;
+    public static final String SHOP_CHANGED_CHANNEL = "shop:changed";
     public static final String USER_SIGN_KEY = "sign:";
 }
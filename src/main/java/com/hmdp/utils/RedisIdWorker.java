@@ -1,19 +1,36 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.thread.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @ClassName: RedisIdWorker
  * @Description: 全局ID生成器 利用redis生成全局唯一ID
+ * 号段模式：用 INCRBY step 一次从redis领取 step 个序列号，本地用CAS逐个发放，用到一定比例时后台线程预取下一个号段
+ * 大部分情况下生成ID不访问redis，ID的结构（31位时间戳 + 32位序列号）不变
  * @Version: 1.0
  */
 
+@Slf4j
 @Component
 public class RedisIdWorker {
 
@@ -27,9 +44,33 @@ public class RedisIdWorker {
     */
     private static final int COUNT_BITS = 32;
 
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    /**
+    *@Description: 是否开启号段模式
+    */
+    @Value("${hmdp.id.segment-enabled:true}")
+    private boolean segmentEnabled;
+
+    /**
+    *@Description: 号段大小（一次 INCRBY 领取的序列号个数）
+    */
+    @Value("${hmdp.id.segment-step:1000}")
+    private long segmentStep;
+
+    // 业务前缀 -> 号段缓冲
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    // 预取号段的后台线程
+    private final ExecutorService segmentLoader = Executors.newSingleThreadExecutor(new NamedThreadFactory("id-segment-", true));
+
+    // 本地时区相对UTC的秒数（与 LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) 的时间戳保持一致）
+    private volatile int zoneOffsetSeconds = currentZoneOffset();
 
     /**
     *@Description:
@@ -39,6 +80,9 @@ public class RedisIdWorker {
     *@return: long
     */
     public long nexId(String keyPrefix){
+        if (segmentEnabled) {
+            return nextIdFromSegment(keyPrefix);
+        }
         // 1. 生成时间戳
         LocalDateTime now = LocalDateTime.now();
         long timestamp = now.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
@@ -46,7 +90,7 @@ public class RedisIdWorker {
         // 2. 生成序列号(利用redis自增长)
         // 2.1 获取当前日期，精确到天(一天一个key)
         //   避免超过32位上限（一天一个自增） + 方便统计
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        String date = now.format(DATE_FORMATTER);
         // 2.2 自增长
         long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
 
@@ -54,9 +98,120 @@ public class RedisIdWorker {
         return timestamp << COUNT_BITS | count;  //+也可以，但位运算比加减快多了
     }
 
-    public static void main(String[] args) {
-        LocalDateTime time = LocalDateTime.of(2022, 1, 1, 0, 0, 0);
-        long second = time.toEpochSecond(ZoneOffset.UTC);  //转化为秒
-        System.out.println(second);
+    /**
+    *@Description: 号段模式生成ID
+    */
+    private long nextIdFromSegment(String keyPrefix){
+        SegmentBuffer buffer = buffers.computeIfAbsent(keyPrefix, SegmentBuffer::new);
+        while (true) {
+            long epochSecond = System.currentTimeMillis() / 1000 + zoneOffsetSeconds;
+            long day = epochSecond / SECONDS_PER_DAY;
+            Segment segment = buffer.current;
+            // 号段属于当天的key才能用，跨天后丢弃（否则会和当天key发出的序列号在同一秒重复）
+            if (segment != null && segment.day == day) {
+                long seq = segment.cursor.getAndIncrement();
+                if (seq <= segment.end) {
+                    if (segment.end - seq <= segment.refillThreshold) {
+                        preload(buffer, day);
+                    }
+                    return (epochSecond - BEGIN_TIMESTAMP) << COUNT_BITS | seq;
+                }
+            }
+            switchSegment(buffer, segment, day);
+        }
+    }
+
+    /**
+    *@Description: 当前号段用完，切换到预取的号段；预取的号段不可用时同步领取
+    */
+    private void switchSegment(SegmentBuffer buffer, Segment exhausted, long day){
+        synchronized (buffer) {
+            if (buffer.current != exhausted) {
+                // 其它线程已经切换过了
+                return;
+            }
+            Segment next = buffer.next.getAndSet(null);
+            if (next == null || next.day != day) {
+                next = loadSegment(buffer.keyPrefix, day);
+            }
+            buffer.current = next;
+        }
+    }
+
+    private void preload(SegmentBuffer buffer, long day){
+        if (buffer.next.get() != null || !buffer.loading.compareAndSet(false, true)) {
+            return;
+        }
+        segmentLoader.submit(() -> {
+            try {
+                buffer.next.set(loadSegment(buffer.keyPrefix, day));
+            } catch (Exception e) {
+                // 预取失败时，号段用完后会同步领取
+                log.error("预取ID号段失败，keyPrefix:{}", buffer.keyPrefix, e);
+            } finally {
+                buffer.loading.set(false);
+            }
+        });
+    }
+
+    /**
+    *@Description: INCRBY icr:{keyPrefix}:{date} step 领取 [end-step+1, end] 这一段序列号
+    */
+    private Segment loadSegment(String keyPrefix, long day){
+        zoneOffsetSeconds = currentZoneOffset();
+        String date = LocalDate.ofEpochDay(day).format(DATE_FORMATTER);
+        long end = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date, segmentStep);
+        return new Segment(day, end - segmentStep + 1, end, segmentStep / 5);
+    }
+
+    private static int currentZoneOffset(){
+        return ZoneId.systemDefault().getRules().getOffset(Instant.now()).getTotalSeconds();
+    }
+
+    @PreDestroy
+    private void destroy(){
+        segmentLoader.shutdownNow();
+    }
+
+    /**
+    *@Description: 一个号段 [cursor, end]，属于 day 这一天的key
+    */
+    private static class Segment {
+        private final long day;
+        private final AtomicLong cursor;
+        private final long end;
+        // 剩余序列号不多于该值时预取下一个号段
+        private final long refillThreshold;
+
+        Segment(long day, long start, long end, long refillThreshold) {
+            this.day = day;
+            this.cursor = new AtomicLong(start);
+            this.end = end;
+            this.refillThreshold = refillThreshold;
+        }
+    }
+
+    /**
+    *@Description: 每个业务前缀的号段缓冲：当前号段 + 预取的下一个号段
+    */
+    private static class SegmentBuffer {
+        private final String keyPrefix;
+        private volatile Segment current;
+        private final AtomicReference<Segment> next = new AtomicReference<>();
+        private final AtomicBoolean loading = new AtomicBoolean();
+
+        SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+    }
+
+    /**
+    *@Description: 指定时间之前生成的id都小于该值（id高位是时间戳），用于按时间对id做范围查询
+    *@Param: [time]
+    *@return: long
+    */
+    public static long idBefore(LocalDateTime time){
+        long timestamp = time.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
+        return timestamp << COUNT_BITS;
     }
 }
@@ -0,0 +1,158 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * @ClassName: RedisSwapRebuilder
+ * @Description: 按 typeId 分key的 redis 索引（ShopGeoSync、ShopRanking）的全量重建：先写 {key}:rebuild 临时key，全部写完后 RENAME 覆盖正式的key，重建期间查询不受影响
+ * 重建期间设置 rebuilding 标记，写路径看到标记时同时写临时key（targets），避免 RENAME 覆盖掉重建期间的修改
+ * 多个节点同时只有一个在重建（分布式锁）
+ * @Version: 1.0
+ */
+
+@Slf4j
+public class RedisSwapRebuilder {
+
+    private static final String TMP_SUFFIX = ":rebuild";
+
+    private final String name;
+    private final String lockName;
+    private final String rebuildingKey;
+    private final long ttlMinutes;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisScriptRegistry redisScriptRegistry;
+
+    private final Map<String, Object> lastRebuild = new LinkedHashMap<>();
+
+    /**
+    *@Param: [name 日志中的名称, lockName 分布式锁名, rebuildingKey 重建中标记, ttlMinutes 锁和标记的过期时间, stringRedisTemplate, redisScriptRegistry]
+    */
+    public RedisSwapRebuilder(String name, String lockName, String rebuildingKey, long ttlMinutes,
+                              StringRedisTemplate stringRedisTemplate, RedisScriptRegistry redisScriptRegistry) {
+        this.name = name;
+        this.lockName = lockName;
+        this.rebuildingKey = rebuildingKey;
+        this.ttlMinutes = ttlMinutes;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisScriptRegistry = redisScriptRegistry;
+    }
+
+    public static byte[] tmp(String key){
+        return bytes(key + TMP_SUFFIX);
+    }
+
+    public static byte[] bytes(String key){
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+    *@Description: 写路径开始前查一次
+    */
+    public boolean isRebuilding(){
+        return Boolean.TRUE.equals(stringRedisTemplate.hasKey(rebuildingKey));
+    }
+
+    /**
+    *@Description: 写路径要写的key：正式的key，重建期间再加上临时key
+    */
+    public List<byte[]> targets(String key, boolean rebuilding){
+        return rebuilding ? Arrays.asList(bytes(key), tmp(key)) : Arrays.asList(bytes(key));
+    }
+
+    /**
+    *@Description: 全量重建
+    *@Param: [typeIds 所有类型, keysOf 一个类型对应的正式key, loader 把全部数据写入 tmp(key)，返回商铺数，并把写入了数据的类型加入参数集合]
+    *@return: 是否成功（没拿到锁也返回false）
+    */
+    public boolean rebuild(Collection<Long> typeIds, Function<Long, List<String>> keysOf, ToIntFunction<Set<Long>> loader){
+        ILock lock = new SimpleRedisLock(lockName, stringRedisTemplate, redisScriptRegistry);
+        try {
+            if (!lock.tryLock(ttlMinutes * 60)) {
+                log.info("其它节点正在重建{}", name);
+                return false;
+            }
+        } catch (Exception e) {
+            log.warn("获取{}重建锁失败", name, e);
+            return false;
+        }
+        long begin = System.currentTimeMillis();
+        try {
+            // 1.清理上次失败留下的临时key，再打标记（顺序不能反，否则会删掉标记后写入临时key的修改）
+            deleteTmpKeys(typeIds, keysOf);
+            stringRedisTemplate.opsForValue().set(rebuildingKey, "1", ttlMinutes, TimeUnit.MINUTES);
+            // 2.写入临时key
+            Set<Long> builtTypeIds = new HashSet<>();
+            int count = loader.applyAsInt(builtTypeIds);
+            // 3.RENAME原子替换正式的key，已经没有商铺的类型删除旧key
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Long typeId : builtTypeIds) {
+                    for (String key : keysOf.apply(typeId)) {
+                        connection.rename(tmp(key), bytes(key));
+                    }
+                }
+                for (Long typeId : typeIds) {
+                    if (builtTypeIds.contains(typeId)) {
+                        continue;
+                    }
+                    for (String key : keysOf.apply(typeId)) {
+                        connection.del(bytes(key));
+                    }
+                }
+                return null;
+            });
+            // 4.去掉标记，清理标记去掉前写路径新建的临时key
+            stringRedisTemplate.delete(rebuildingKey);
+            deleteTmpKeys(typeIds, keysOf);
+            long cost = System.currentTimeMillis() - begin;
+            synchronized (lastRebuild) {
+                lastRebuild.put("time", System.currentTimeMillis());
+                lastRebuild.put("shops", count);
+                lastRebuild.put("types", builtTypeIds.size());
+                lastRebuild.put("costMillis", cost);
+            }
+            log.info("{}重建完成，商铺数:{}，类型数:{}，耗时:{}ms", name, count, builtTypeIds.size(), cost);
+            return true;
+        } catch (Exception e) {
+            // 正式的key没有被替换，继续使用旧数据
+            stringRedisTemplate.delete(rebuildingKey);
+            log.error("{}重建失败", name, e);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+    *@Description: 最近一次成功重建的统计（本节点执行的）
+    */
+    public Map<String, Object> stats(){
+        synchronized (lastRebuild) {
+            return new LinkedHashMap<>(lastRebuild);
+        }
+    }
+
+    private void deleteTmpKeys(Collection<Long> typeIds, Function<Long, List<String>> keysOf){
+        List<String> keys = new ArrayList<>();
+        for (Long typeId : typeIds) {
+            for (String key : keysOf.apply(typeId)) {
+                keys.add(key + TMP_SUFFIX);
+            }
+        }
+        stringRedisTemplate.delete(keys);
+    }
+}
@@ -0,0 +1,160 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @ClassName: SeckillBuyerDedup
+ * @Description: 秒杀一人一单的去重结构
+ * set:    seckill:order:{voucherId}    用户id字符串的集合，每个用户几十字节
+ * bitmap: seckill:buyers:{voucherId}   以用户id为偏移量的位图，每个用户1bit（用户id是自增的数字，位图大小约为 最大用户id/8 字节）
+ * key中的 {voucherId} 是hash tag，与库存key在同一个slot（见 SeckillStockSharding）
+ * 去重方式在新增秒杀券时确定，保存在 seckill:dedup:voucherId（不存在即为set），两种方式的key都在秒杀结束后自动过期
+ * @Version: 1.0
+ */
+
+@Component
+public class SeckillBuyerDedup {
+
+    public static final String SET = "set";
+    public static final String BITMAP = "bitmap";
+
+    /**
+    *@Description: 新增秒杀券时使用的去重方式
+    */
+    @Value("${hmdp.seckill.dedup.mode:set}")
+    private String defaultMode;
+
+    /**
+    *@Description: 去重key在秒杀结束后保留的秒数（留给对账）
+    */
+    @Value("${hmdp.seckill.dedup.expire-after-end:86400}")
+    private long expireAfterEnd;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    // 秒杀券的去重方式，创建后不会变化，所以缓存在本地
+    private final Map<Long, String> modeCache = new ConcurrentHashMap<>();
+
+    /**
+    *@Description: 新增秒杀券时确定去重方式
+    */
+    public void init(Long voucherId){
+        String mode = BITMAP.equals(defaultMode) ? BITMAP : SET;
+        if (BITMAP.equals(mode)) {
+            stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_DEDUP_KEY + voucherId, mode);
+        }
+        modeCache.put(voucherId, mode);
+    }
+
+    public String mode(Long voucherId){
+        String cached = modeCache.get(voucherId);
+        if (cached != null) {
+            return cached;
+        }
+        String mode = stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_DEDUP_KEY + voucherId);
+        mode = BITMAP.equals(mode) ? BITMAP : SET;
+        modeCache.put(voucherId, mode);
+        return mode;
+    }
+
+    /**
+    *@Description: 去重key的过期时间点（秒级时间戳）
+    */
+    public long expireAt(LocalDateTime endTime){
+        return endTime.atZone(ZoneId.systemDefault()).toEpochSecond() + expireAfterEnd;
+    }
+
+    /**
+    *@Description: 去重key（分片模式下每个分片一个）
+    *@Param: [voucherId, shard 分片号，非分片模式传-1]
+    */
+    public String key(Long voucherId, int shard){
+        String key = (BITMAP.equals(mode(voucherId)) ? RedisConstants.SECKILL_BUYERS_KEY : RedisConstants.SECKILL_ORDER_KEY)
+                + SeckillStockSharding.tag(voucherId);
+        return shard < 0 ? key : key + ":" + shard;
+    }
+
+    /**
+    *@Description: 用户是否已在去重结构中
+    *@Param: [voucherId, userId, shards 分片数]
+    */
+    public boolean contains(Long voucherId, Long userId, int shards){
+        String key = key(voucherId, shards > 1 ? (int) Math.floorMod(userId, (long) shards) : -1);
+        if (BITMAP.equals(mode(voucherId))) {
+            // 与seckill.lua一致：分片模式下偏移量为 userId / shards
+            return Boolean.TRUE.equals(stringRedisTemplate.opsForValue().getBit(key, userId / shards));
+        }
+        return Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(key, userId.toString()));
+    }
+
+    /**
+    *@Description: 把用户补进去重结构（对账修复时使用）
+    *@Param: [voucherId, userId, shards 分片数, expireAt 过期时间点]
+    */
+    public void add(Long voucherId, Long userId, int shards, long expireAt){
+        String key = key(voucherId, shards > 1 ? (int) Math.floorMod(userId, (long) shards) : -1);
+        if (BITMAP.equals(mode(voucherId))) {
+            stringRedisTemplate.opsForValue().setBit(key, userId / shards, true);
+        } else {
+            stringRedisTemplate.opsForSet().add(key, userId.toString());
+        }
+        stringRedisTemplate.expireAt(key, new Date(expireAt * 1000));
+    }
+
+    /**
+    *@Description: 批量把用户补进去重结构（redis数据丢失后从订单表恢复时使用），一批用一个pipeline
+    *@Param: [voucherId, userIds, shards 分片数, expireAt 过期时间点]
+    */
+    public void addAll(Long voucherId, Collection<Long> userIds, int shards, long expireAt){
+        boolean bitmap = BITMAP.equals(mode(voucherId));
+        Set<String> keys = new HashSet<>();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long userId : userIds) {
+                String key = key(voucherId, shards > 1 ? (int) Math.floorMod(userId, (long) shards) : -1);
+                byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+                if (bitmap) {
+                    connection.setBit(rawKey, userId / shards, true);
+                } else {
+                    connection.sAdd(rawKey, userId.toString().getBytes(StandardCharsets.UTF_8));
+                }
+                keys.add(key);
+            }
+            for (String key : keys) {
+                connection.expireAt(key.getBytes(StandardCharsets.UTF_8), expireAt);
+            }
+            return null;
+        });
+    }
+
+    /**
+    *@Description: 已下单的用户数（set用SCARD，bitmap用BITCOUNT）
+    *@Param: [voucherId, shards 分片数]
+    */
+    public long buyerCount(Long voucherId, int shards){
+        boolean bitmap = BITMAP.equals(mode(voucherId));
+        long count = 0;
+        for (int i = 0; i < shards; i++) {
+            byte[] key = key(voucherId, shards > 1 ? i : -1).getBytes(StandardCharsets.UTF_8);
+            Long size = bitmap
+                    ? stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.bitCount(key))
+                    : stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.sCard(key));
+            count += size == null ? 0 : size;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,135 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @ClassName: SeckillSoldOutHolder
+ * @Description: 秒杀券售罄的本地标记
+ * 售罄后的请求直接在JVM内拒绝，不再执行seckill.lua；标记通过redis发布订阅广播到其它节点
+ * 消息格式：  1:voucherId:时间戳 售罄    0:voucherId:时间戳 补货/重新上架，清除标记
+ * 标记带时间戳：判断售罄的请求如果开始于最近一次补货之前，它的售罄结论已经过时，不再标记（包括其它节点广播过来的）
+ * 标记只保留 ttl 毫秒，过期后的下一个请求重新执行lua脚本，仍然售罄时再标记，漏掉的补货消息最多影响 ttl 毫秒
+ * @Version: 1.0
+ */
+
+@Slf4j
+@Component
+public class SeckillSoldOutHolder implements MessageListener {
+
+    private static final String SOLD_OUT = "1";
+    private static final String RESET = "0";
+
+    @Value("${hmdp.seckill.sold-out-ttl-millis:5000}")
+    private long ttlMillis;
+
+    // voucherId -> 售罄标记的过期时间
+    private final Map<Long, Long> soldOutUntil = new ConcurrentHashMap<>();
+    // voucherId -> 最近一次补货的时间
+    private final Map<Long, Long> resetAt = new ConcurrentHashMap<>();
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer listenerContainer;
+
+    @PostConstruct
+    private void init(){
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    public boolean isSoldOut(Long voucherId){
+        Long until = soldOutUntil.get(voucherId);
+        if (until == null) {
+            return false;
+        }
+        if (until < System.currentTimeMillis()) {
+            soldOutUntil.remove(voucherId, until);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+    *@Description: 标记售罄并广播（本节点第一次标记时才广播，避免售罄瞬间的并发请求重复发消息）
+    *@Param: [voucherId, observedAt 判断出售罄的请求执行lua脚本之前的时间]
+    */
+    public void markSoldOut(Long voucherId, long observedAt){
+        if (mark(voucherId, observedAt)) {
+            publish(SOLD_OUT, voucherId, observedAt);
+        }
+    }
+
+    /**
+    *@Description: 清除售罄标记并广播（新增秒杀券、补货的事务提交后调用）
+    */
+    public void reset(Long voucherId){
+        long now = System.currentTimeMillis();
+        clear(voucherId, now);
+        publish(RESET, voucherId, now);
+    }
+
+    /**
+    *@return: 是否是新的标记
+    */
+    private boolean mark(Long voucherId, long observedAt){
+        if (observedAt < resetAt.getOrDefault(voucherId, 0L)) {
+            // 请求开始后补过货，结论已过时
+            return false;
+        }
+        long until = System.currentTimeMillis() + ttlMillis;
+        Long previous = soldOutUntil.put(voucherId, until);
+        return previous == null || previous < System.currentTimeMillis();
+    }
+
+    private void clear(Long voucherId, long time){
+        resetAt.merge(voucherId, time, Math::max);
+        soldOutUntil.remove(voucherId);
+    }
+
+    private void publish(String type, Long voucherId, long time){
+        try {
+            stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_SOLD_OUT_CHANNEL, type + ":" + voucherId + ":" + time);
+        } catch (Exception e) {
+            // 广播失败只影响其它节点的短路，其它节点执行lua脚本时会自己标记
+            log.warn("广播售罄标记失败，voucherId:{}", voucherId, e);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        String[] parts = body.split(":");
+        if (parts.length != 3) {
+            log.warn("无法解析的售罄标记消息：{}", body);
+            return;
+        }
+        Long voucherId;
+        long time;
+        try {
+            voucherId = Long.valueOf(parts[1]);
+            time = Long.parseLong(parts[2]);
+        } catch (NumberFormatException e) {
+            log.warn("无法解析的售罄标记消息：{}", body);
+            return;
+        }
+        if (SOLD_OUT.equals(parts[0])) {
+            mark(voucherId, time);
+        } else {
+            clear(voucherId, time);
+        }
+    }
+}
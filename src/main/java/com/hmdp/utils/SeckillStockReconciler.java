@@ -0,0 +1,251 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.Data;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @ClassName: SeckillStockReconciler
+ * @Description: redis秒杀库存与数据库的对账
+ * 不变量：redis库存 + redis已下单用户数 == 数据库库存 + 数据库订单数（都等于初始库存）
+ *   - lua脚本扣redis库存和记录用户是原子的；消费者插入订单和扣数据库库存在同一事务里，所以消息队列中未落库的订单不影响等式
+ * 1. 按 (voucher_id, id) 键集分页逐批读取订单，检查每个下单用户都在redis去重结构里，检查点保存在 seckill:reconcile:{voucherId}
+ *    只推进到 lag 之前的订单，重投递/晚提交的订单id较小，留给最后一步一起统计
+ * 2. 追上检查点后，在一个事务快照里读数据库库存和检查点之后的订单数，与redis比较
+ * 每轮每张券最多读 maxBatches 批，批之间停顿 pauseMillis，避免影响主库
+ * @Version: 1.0
+ */
+
+@Slf4j
+@Component
+public class SeckillStockReconciler {
+
+    private static final String LOCK_NAME = "seckill:reconcile";
+    private static final String FIELD_LAST_ID = "lastId";
+    private static final String FIELD_ORDERS = "orders";
+
+    @Value("${hmdp.seckill.reconcile.enabled:true}")
+    private boolean enabled;
+
+    /**
+    *@Description: 发现不一致时是否自动修复（false只报告）
+    */
+    @Value("${hmdp.seckill.reconcile.repair:false}")
+    private boolean repair;
+
+    @Value("${hmdp.seckill.reconcile.batch-size:500}")
+    private int batchSize;
+
+    @Value("${hmdp.seckill.reconcile.max-batches:10}")
+    private int maxBatches;
+
+    @Value("${hmdp.seckill.reconcile.pause-millis:50}")
+    private long pauseMillis;
+
+    /**
+    *@Description: 检查点只推进到该秒数之前生成的订单
+    */
+    @Value("${hmdp.seckill.reconcile.lag-seconds:600}")
+    private long lagSeconds;
+
+    /**
+    *@Description: 秒杀结束后继续对账的秒数
+    */
+    @Value("${hmdp.seckill.reconcile.retention-seconds:86400}")
+    private long retentionSeconds;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisScriptRegistry redisScriptRegistry;
+
+    @Autowired
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Autowired
+    private IVoucherOrderService voucherOrderService;
+
+    @Autowired
+    private SeckillStockSharding seckillStockSharding;
+
+    @Autowired
+    private SeckillBuyerDedup seckillBuyerDedup;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    // 最近一次对账结果
+    private final Map<Long, ReconcileResult> results = new ConcurrentHashMap<>();
+
+    @Scheduled(fixedDelayString = "${hmdp.seckill.reconcile.interval:60000}")
+    public void reconcile(){
+        if (!enabled) {
+            return;
+        }
+        // 集群下只让一个节点对账
+        ILock lock = new SimpleRedisLock(LOCK_NAME, stringRedisTemplate, redisScriptRegistry);
+        if (!lock.tryLock(600)) {
+            return;
+        }
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            // 进行中以及结束不久的秒杀券
+            List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                    .select("voucher_id", "end_time")
+                    .ge("end_time", now.minusSeconds(retentionSeconds))
+                    .le("begin_time", now)
+                    .list();
+            for (SeckillVoucher voucher : vouchers) {
+                try {
+                    reconcile(voucher);
+                } catch (Exception e) {
+                    log.error("秒杀库存对账失败，voucherId:{}", voucher.getVoucherId(), e);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void reconcile(SeckillVoucher voucher) throws InterruptedException {
+        Long voucherId = voucher.getVoucherId();
+        String checkpointKey = RedisConstants.SECKILL_RECONCILE_KEY + voucherId;
+        Map<Object, Object> checkpoint = stringRedisTemplate.opsForHash().entries(checkpointKey);
+        long lastId = Long.parseLong((String) checkpoint.getOrDefault(FIELD_LAST_ID, "0"));
+        long orders = Long.parseLong((String) checkpoint.getOrDefault(FIELD_ORDERS, "0"));
+        int shards = seckillStockSharding.shardCount(voucherId);
+        long expireAt = seckillBuyerDedup.expireAt(voucher.getEndTime());
+        long missingBuyers = 0;
+
+        // 1. 键集分页读取 lag 之前的订单，检查下单用户
+        long maxId = RedisIdWorker.idBefore(LocalDateTime.now().minusSeconds(lagSeconds));
+        boolean caughtUp = false;
+        for (int i = 0; i < maxBatches; i++) {
+            List<VoucherOrder> batch = voucherOrderService.query()
+                    .select("id", "user_id")
+                    .eq("voucher_id", voucherId)
+                    .gt("id", lastId)
+                    .lt("id", maxId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + batchSize)
+                    .list();
+            for (VoucherOrder order : batch) {
+                if (!seckillBuyerDedup.contains(voucherId, order.getUserId(), shards)) {
+                    missingBuyers++;
+                    log.warn("订单用户不在redis去重结构中，voucherId:{}，orderId:{}，userId:{}", voucherId, order.getId(), order.getUserId());
+                    if (repair) {
+                        seckillBuyerDedup.add(voucherId, order.getUserId(), shards, expireAt);
+                    }
+                }
+                lastId = order.getId();
+            }
+            orders += batch.size();
+            if (batch.size() < batchSize) {
+                caughtUp = true;
+                break;
+            }
+            Thread.sleep(pauseMillis);
+        }
+        Map<String, String> newCheckpoint = new LinkedHashMap<>();
+        newCheckpoint.put(FIELD_LAST_ID, String.valueOf(lastId));
+        newCheckpoint.put(FIELD_ORDERS, String.valueOf(orders));
+        stringRedisTemplate.opsForHash().putAll(checkpointKey, newCheckpoint);
+        stringRedisTemplate.expireAt(checkpointKey, new Date(expireAt * 1000));
+        if (!caughtUp) {
+            // 还没追上，下一轮继续
+            return;
+        }
+
+        // 2. 同一事务快照里读数据库库存和检查点之后的订单数
+        final long checkpointId = lastId;
+        long[] db = transactionTemplate.execute(status -> {
+            SeckillVoucher current = seckillVoucherService.query()
+                    .select("stock")
+                    .eq("voucher_id", voucherId)
+                    .one();
+            int recent = voucherOrderService.query()
+                    .eq("voucher_id", voucherId)
+                    .gt("id", checkpointId)
+                    .count();
+            return new long[]{current.getStock(), recent};
+        });
+        long dbStock = db[0];
+        long dbOrders = orders + db[1];
+
+        // 3. redis库存和已下单用户数（两次读库存一致才认为读到的是同一时刻的数据）
+        long redisStock = -1;
+        long redisBuyers = -1;
+        for (int i = 0; i < 3; i++) {
+            long stock = seckillStockSharding.totalStock(voucherId);
+            long buyers = seckillBuyerDedup.buyerCount(voucherId, shards);
+            if (stock == seckillStockSharding.totalStock(voucherId)) {
+                redisStock = stock;
+                redisBuyers = buyers;
+                break;
+            }
+        }
+        ReconcileResult result = new ReconcileResult()
+                .setDbStock(dbStock)
+                .setDbOrders(dbOrders)
+                .setRedisStock(redisStock)
+                .setRedisBuyers(redisBuyers)
+                .setMissingBuyers(missingBuyers)
+                .setCheckedAt(LocalDateTime.now());
+        if (redisStock < 0) {
+            // 秒杀太热，没读到稳定的redis数据，下一轮再比较
+            result.setConsistent(missingBuyers == 0);
+            results.put(voucherId, result);
+            return;
+        }
+        long expectedRedisStock = dbStock + dbOrders - redisBuyers;
+        result.setExpectedRedisStock(expectedRedisStock);
+        result.setConsistent(missingBuyers == 0 && expectedRedisStock == redisStock);
+        results.put(voucherId, result);
+        if (expectedRedisStock != redisStock) {
+            log.warn("秒杀库存不一致，voucherId:{}，redis库存:{}，应为:{}（数据库库存:{}，订单:{}，redis用户:{}）",
+                    voucherId, redisStock, expectedRedisStock, dbStock, dbOrders, redisBuyers);
+            if (repair) {
+                // 用增量修正，不覆盖并发中的扣减
+                seckillStockSharding.adjustStock(voucherId, expectedRedisStock - redisStock);
+            }
+        }
+    }
+
+    /**
+    *@Description: 最近一次对账结果
+    */
+    public Map<Long, ReconcileResult> results(){
+        return results;
+    }
+
+    @Data
+    @Accessors(chain = true)
+    public static class ReconcileResult {
+        private long dbStock;
+        private long dbOrders;
+        private long redisStock;
+        private long redisBuyers;
+        private long expectedRedisStock;
+        private long missingBuyers;
+        private boolean consistent;
+        private LocalDateTime checkedAt;
+    }
+}
@@ -0,0 +1,197 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @ClassName: SeckillStockSharding
+ * @Description: 秒杀库存分片
+ * 热点券的库存拆成K个子key  seckill:stock:{voucherId}:i，一人一单的set也拆成  seckill:order:{voucherId}:i
+ * 用户按 userId % K 固定路由到一个分片，所以一人一单只需要在分片内判断；某个分片卖空时从其它分片借库存（再平衡）
+ * 分片数在新增秒杀券时确定，保存在 seckill:shards:voucherId，之后不再变化（变化会导致同一用户路由到不同分片）
+ * 库存key、分片数key与去重key一样在秒杀结束后自动过期
+ * 同一张券的库存key、去重key都以 {voucherId} 作为hash tag，集群模式下在同一个slot，秒杀脚本和再平衡脚本才能原子地操作多个key
+ * @Version: 1.0
+ */
+
+@Slf4j
+@Component
+public class SeckillStockSharding {
+
+    /**
+    *@Description: 新增秒杀券时的默认分片数，1表示不分片
+    */
+    @Value("${hmdp.seckill.stock-shards:1}")
+    private int defaultShards;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisScriptRegistry redisScriptRegistry;
+
+    // 秒杀券的分片数，创建后不会变化，所以缓存在本地
+    private final Map<Long, Integer> shardCountCache = new ConcurrentHashMap<>();
+
+    /**
+    *@Description: 初始化秒杀券在redis中的库存，分片数取 min(默认分片数, 库存)
+    *@Param: [voucherId, stock, expireAt 库存key的过期时间点（秒级时间戳，与去重key一致）]
+    *@return: void
+    */
+    public void initStock(Long voucherId, int stock, long expireAt){
+        int shards = initialShards(stock);
+        if (shards == 1) {
+            set(stockKey(voucherId, -1), stock, expireAt);
+        } else {
+            // 库存尽量平均分到各个分片
+            for (int i = 0; i < shards; i++) {
+                int shardStock = stock / shards + (i < stock % shards ? 1 : 0);
+                set(stockKey(voucherId, i), shardStock, expireAt);
+            }
+            set(RedisConstants.SECKILL_SHARDS_KEY + voucherId, shards, expireAt);
+        }
+        shardCountCache.put(voucherId, shards);
+    }
+
+    /**
+    *@Description: initStock 会使用的分片数（初始化前需要按分片写去重结构时使用）
+    */
+    public int initialShards(int stock){
+        return Math.max(1, Math.min(defaultShards, stock));
+    }
+
+    /**
+    *@Description: 补货，分片模式下平均加到各个分片
+    *@Param: [voucherId, count, expireAt 库存key的过期时间点（key已过期被删除时INCRBY会新建key）]
+    *@return: void
+    */
+    public void addStock(Long voucherId, int count, long expireAt){
+        int shards = shardCount(voucherId);
+        if (shards == 1) {
+            increment(stockKey(voucherId, -1), count, expireAt);
+            return;
+        }
+        for (int i = 0; i < shards; i++) {
+            int shardCount = count / shards + (i < count % shards ? 1 : 0);
+            if (shardCount > 0) {
+                increment(stockKey(voucherId, i), shardCount, expireAt);
+            }
+        }
+    }
+
+    private void set(String key, int value, long expireAt){
+        stringRedisTemplate.opsForValue().set(key, String.valueOf(value));
+        stringRedisTemplate.expireAt(key, new Date(expireAt * 1000));
+    }
+
+    private void increment(String key, int delta, long expireAt){
+        stringRedisTemplate.opsForValue().increment(key, delta);
+        stringRedisTemplate.expireAt(key, new Date(expireAt * 1000));
+    }
+
+    /**
+    *@Description: 秒杀券的分片数，1表示不分片
+    */
+    public int shardCount(Long voucherId){
+        Integer cached = shardCountCache.get(voucherId);
+        if (cached != null) {
+            return cached;
+        }
+        String shards = stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_SHARDS_KEY + voucherId);
+        int count = StrUtil.isBlank(shards) ? 1 : Integer.parseInt(shards);
+        shardCountCache.put(voucherId, count);
+        return count;
+    }
+
+    /**
+    *@Description: 用户路由到的分片号
+    */
+    public int shardOf(Long userId, int shards){
+        return (int) Math.floorMod(userId, (long) shards);
+    }
+
+    /**
+    *@Description: 同一张券的key共用的hash tag
+    */
+    public static String tag(Long voucherId){
+        return "{" + voucherId + "}";
+    }
+
+    /**
+    *@Description: 库存key
+    *@Param: [voucherId, shard 分片号，非分片模式传-1]
+    */
+    public String stockKey(Long voucherId, int shard){
+        String key = RedisConstants.SECKILL_STOCK_KEY + tag(voucherId);
+        return shard < 0 ? key : key + ":" + shard;
+    }
+
+    /**
+    *@Description: redis中剩余的总库存（所有分片之和）
+    */
+    public long totalStock(Long voucherId){
+        int shards = shardCount(voucherId);
+        if (shards == 1) {
+            String stock = stringRedisTemplate.opsForValue().get(stockKey(voucherId, -1));
+            return StrUtil.isBlank(stock) ? 0 : Long.parseLong(stock);
+        }
+        long total = 0;
+        for (String stock : shardStocks(voucherId, shards)) {
+            total += StrUtil.isBlank(stock) ? 0 : Long.parseLong(stock);
+        }
+        return total;
+    }
+
+    /**
+    *@Description: 调整redis库存（对账修复、退回被丢弃订单的库存时使用），分片模式下加到0号分片，卖空时会通过再平衡分出去
+    *@Param: [voucherId, delta 正数加库存，负数减库存]
+    */
+    public void adjustStock(Long voucherId, long delta){
+        int shards = shardCount(voucherId);
+        String key = stockKey(voucherId, shards == 1 ? -1 : 0);
+        stringRedisTemplate.opsForValue().increment(key, delta);
+    }
+
+    /**
+    *@Description: 分片再平衡：卖空的分片从库存最多的分片借一半库存，借出和转入在 stock_rebalance.lua 中原子完成
+    *@Param: [voucherId, dryShard 卖空的分片]
+    *@return: boolean true表示卖空的分片现在有库存了（可能已被并发请求抢走，调用方重试时会再次再平衡），false表示所有分片都没有库存了（真正售罄）
+    */
+    public boolean rebalance(Long voucherId, int dryShard){
+        int shards = shardCount(voucherId);
+        Long stock = redisScriptRegistry.execute(
+                "stock_rebalance",
+                shardStockKeys(voucherId, shards),
+                String.valueOf(dryShard + 1)
+        );
+        if (stock == null || stock <= 0) {
+            return false;
+        }
+        log.debug("秒杀库存再平衡，voucherId:{}，分片:{}，可用库存:{}", voucherId, dryShard, stock);
+        return true;
+    }
+
+    private List<String> shardStockKeys(Long voucherId, int shards){
+        List<String> keys = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            keys.add(stockKey(voucherId, i));
+        }
+        return keys;
+    }
+
+    private List<String> shardStocks(Long voucherId, int shards){
+        List<String> stocks = stringRedisTemplate.opsForValue().multiGet(shardStockKeys(voucherId, shards));
+        return stocks == null ? Collections.nCopies(shards, (String) null) : stocks;
+    }
+}
@@ -0,0 +1,94 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+/**
+ * @ClassName: ShopChangeBroadcaster
+ * @Description: 商铺变更广播：写操作（事务提交后）发布商铺id，每个节点收到后从数据库读最新数据，通知本地的内存索引更新
+ * 发布者自己也会收到消息，所以本节点和其它节点走同一条更新路径；商铺不存在（已删除）时回调的 shop 为 null
+ * @Version: 1.0
+ */
+
+@Slf4j
+@Component
+public class ShopChangeBroadcaster {
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer listenerContainer;
+
+    @Autowired
+    private ShopMapper shopMapper;
+
+    private final List<BiConsumer<Long, Shop>> listeners = new CopyOnWriteArrayList<>();
+
+    @PostConstruct
+    private void init(){
+        listenerContainer.addMessageListener(
+                (message, pattern) -> onMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RedisConstants.SHOP_CHANGED_CHANNEL)
+        );
+    }
+
+    /**
+    *@Description: 注册监听，参数为 (商铺id, 最新的商铺数据或null)
+    */
+    public void addListener(BiConsumer<Long, Shop> listener){
+        listeners.add(listener);
+    }
+
+    /**
+    *@Description: 发布商铺变更，在事务中调用时提交后才发布
+    */
+    public void publish(Long shopId){
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            doPublish(shopId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                doPublish(shopId);
+            }
+        });
+    }
+
+    private void doPublish(Long shopId){
+        try {
+            stringRedisTemplate.convertAndSend(RedisConstants.SHOP_CHANGED_CHANNEL, shopId.toString());
+        } catch (Exception e) {
+            // 发布失败时本节点直接更新，其它节点等定时全量重建
+            log.warn("广播商铺变更失败，shopId:{}", shopId, e);
+            onMessage(shopId.toString());
+        }
+    }
+
+    private void onMessage(String body){
+        Long shopId = Long.valueOf(body);
+        Shop shop = shopMapper.selectById(shopId);
+        for (BiConsumer<Long, Shop> listener : listeners) {
+            try {
+                listener.accept(shopId, shop);
+            } catch (Exception e) {
+                log.error("处理商铺变更失败，shopId:{}", shopId, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @ClassName: ShopGeoIndex
+ * @Description: 附近商铺的进程内空间索引，按 typeId 分开，每个类型是一个经纬度网格（cellDegrees 度一格）
+ * 每个格子用基本类型数组保存商铺id和坐标，修改时复制出新数组替换（写很少，读不加锁）
+ * 启动时按id键集分页读取 tb_shop 构建，之后通过 ShopChangeBroadcaster 增量更新，并定时全量重建兜底（ShopIndexHolder）
+ * 距离按 redis GEO 相同的地球半径计算（米），与 GEOSEARCH 的结果一致；结果按（距离，id）排序，距离相同的商铺顺序也是固定的，游标分页可以从上一页最后一个继续
+ * @Version: 1.0
+ */
+
+@Component
+public class ShopGeoIndex {
+
+    // redis GEO 使用的地球半径（米）
+    private static final double EARTH_RADIUS = 6372797.560856;
+    private static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180;
+
+    // 查询结果的顺序：距离升序，距离相同按id升序
+    public static final Comparator<Hit> ORDER = Comparator.comparingDouble(Hit::getDistance).thenComparingLong(Hit::getId);
+
+    @Value("${hmdp.shop.geo.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.shop.geo.cell-degrees:0.01}")
+    private double cellDegrees;
+
+    @Value("${hmdp.shop.geo.batch-size:1000}")
+    private int batchSize;
+
+    @Autowired
+    private ShopMapper shopMapper;
+
+    @Autowired
+    private ShopChangeBroadcaster shopChangeBroadcaster;
+
+    @Autowired
+    private IndexRebuildExecutor indexRebuildExecutor;
+
+    private final ShopIndexHolder<Index> holder = new ShopIndexHolder<>("商铺空间索引", Index::new, this::apply);
+
+    @PostConstruct
+    private void init(){
+        shopChangeBroadcaster.addListener(holder::onShopChanged);
+    }
+
+    public boolean isReady(){
+        return enabled && holder.current() != null;
+    }
+
+    /**
+    *@Description: 半径查询，按距离升序返回前 limit 个
+    *@Param: [typeId, x 经度, y 纬度, radiusMeters 半径（米）, limit]
+    */
+    public List<Hit> radius(Long typeId, double x, double y, double radiusMeters, int limit){
+        return radiusAfter(typeId, x, y, radiusMeters, -1, 0, limit);
+    }
+
+    /**
+    *@Description: 半径查询，只返回排在（afterDistance，afterId）之后的，按（距离，id）升序返回前 limit 个；游标分页每页只扫描候选格子，不需要保存上一页的结果
+    *@Param: [typeId, x 经度, y 纬度, radiusMeters 半径（米）, afterDistance 上一页最后一个的距离，第一页传-1, afterId 上一页最后一个的id, limit]
+    */
+    public List<Hit> radiusAfter(Long typeId, double x, double y, double radiusMeters, double afterDistance, long afterId, int limit){
+        Map<Long, Cell> cells = cells(typeId);
+        if (cells == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        double dLat = radiusMeters / METERS_PER_DEGREE;
+        double dLon = dLat / Math.max(Math.cos(Math.toRadians(y)), 1e-6);
+        long rowFrom = cellIndex(y - dLat), rowTo = cellIndex(y + dLat);
+        long colFrom = cellIndex(x - dLon), colTo = cellIndex(x + dLon);
+        // 大顶堆保留排在最前的 limit 个
+        PriorityQueue<Hit> heap = new PriorityQueue<>(ORDER.reversed());
+        for (long row = rowFrom; row <= rowTo; row++) {
+            for (long col = colFrom; col <= colTo; col++) {
+                collect(cells.get(cellKey(row, col)), x, y, radiusMeters, afterDistance, afterId, limit, heap);
+            }
+        }
+        return sorted(heap);
+    }
+
+    /**
+    *@Description: k近邻，按格子一圈一圈向外扩展，已找到的第k个距离不超过未扫描格子的最近距离时停止
+    *@Param: [typeId, x 经度, y 纬度, k, maxRadiusMeters 最大搜索半径（米）]
+    */
+    public List<Hit> nearest(Long typeId, double x, double y, int k, double maxRadiusMeters){
+        Map<Long, Cell> cells = cells(typeId);
+        if (cells == null || k <= 0) {
+            return Collections.emptyList();
+        }
+        // 一格在纬度、经度方向上的最小跨度（米）
+        double cellMeters = cellDegrees * METERS_PER_DEGREE * Math.max(Math.cos(Math.toRadians(y)), 1e-6);
+        long centerRow = cellIndex(y), centerCol = cellIndex(x);
+        PriorityQueue<Hit> heap = new PriorityQueue<>(ORDER.reversed());
+        for (long ring = 0; ; ring++) {
+            for (long row = centerRow - ring; row <= centerRow + ring; row++) {
+                boolean edgeRow = row == centerRow - ring || row == centerRow + ring;
+                long step = edgeRow ? 1 : Math.max(1, 2 * ring);
+                for (long col = centerCol - ring; col <= centerCol + ring; col += step) {
+                    collect(cells.get(cellKey(row, col)), x, y, maxRadiusMeters, -1, 0, k, heap);
+                }
+            }
+            // 未扫描的格子距离中心点至少 ring * cellMeters
+            double covered = ring * cellMeters;
+            if ((heap.size() >= k && heap.peek().getDistance() <= covered) || covered > maxRadiusMeters) {
+                break;
+            }
+        }
+        return sorted(heap);
+    }
+
+    /**
+    *@Description: 定时全量重建，启动时立即执行一次；重建在 IndexRebuildExecutor 里执行，不占用定时任务线程
+    */
+    @Scheduled(initialDelay = 0, fixedDelayString = "${hmdp.shop.geo.rebuild-interval:3600000}")
+    public void scheduledRebuild(){
+        indexRebuildExecutor.submit("shop-geo-index", this::rebuild);
+    }
+
+    /**
+    *@Description: 全量重建
+    */
+    public void rebuild(){
+        if (enabled) {
+            holder.rebuild(shopMapper, batchSize, "id", "type_id", "x", "y");
+        }
+    }
+
+    /**
+    *@Description: 从旧位置移除，再按新的类型和坐标加入；shop 为 null 表示已删除
+    */
+    private void apply(Index index, Long shopId, Shop shop){
+        Location old = index.locations.remove(shopId);
+        if (old != null) {
+            Map<Long, Cell> cells = index.types.get(old.typeId);
+            if (cells != null) {
+                cells.computeIfPresent(cellKey(cellIndex(old.y), cellIndex(old.x)), (k, cell) -> cell.without(shopId));
+            }
+        }
+        if (shop == null || shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+            return;
+        }
+        double x = shop.getX(), y = shop.getY();
+        index.locations.put(shopId, new Location(shop.getTypeId(), x, y));
+        index.types.computeIfAbsent(shop.getTypeId(), k -> new ConcurrentHashMap<>())
+                .compute(cellKey(cellIndex(y), cellIndex(x)), (k, cell) -> cell == null ? Cell.of(shopId, x, y) : cell.with(shopId, x, y));
+    }
+
+    private Map<Long, Cell> cells(Long typeId){
+        Index index = holder.current();
+        return index == null ? null : index.types.get(typeId);
+    }
+
+    private void collect(Cell cell, double x, double y, double radiusMeters, double afterDistance, long afterId, int limit, PriorityQueue<Hit> heap){
+        if (cell == null) {
+            return;
+        }
+        for (int i = 0; i < cell.ids.length; i++) {
+            double distance = distance(x, y, cell.xs[i], cell.ys[i]);
+            if (distance > radiusMeters || !isAfter(distance, cell.ids[i], afterDistance, afterId)) {
+                continue;
+            }
+            if (heap.size() < limit) {
+                heap.add(new Hit(cell.ids[i], distance));
+            } else if (!isAfter(distance, cell.ids[i], heap.peek().getDistance(), heap.peek().getId())) {
+                heap.poll();
+                heap.add(new Hit(cell.ids[i], distance));
+            }
+        }
+    }
+
+    private static List<Hit> sorted(PriorityQueue<Hit> heap){
+        List<Hit> hits = new ArrayList<>(heap);
+        hits.sort(ORDER);
+        return hits;
+    }
+
+    /**
+    *@Description: （distance，id）是否排在（afterDistance，afterId）之后
+    */
+    public static boolean isAfter(double distance, long id, double afterDistance, long afterId){
+        return distance > afterDistance || (distance == afterDistance && id > afterId);
+    }
+
+    private long cellIndex(double degrees){
+        return (long) Math.floor(degrees / cellDegrees);
+    }
+
+    private static long cellKey(long row, long col){
+        return (row << 32) | (col & 0xFFFFFFFFL);
+    }
+
+    /**
+    *@Description: 两点之间的球面距离（米），与 redis GEODIST 的算法相同
+    */
+    public static double distance(double x1, double y1, double x2, double y2){
+        double lat1 = Math.toRadians(y1), lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Hit {
+        private long id;
+        // 距离（米）
+        private double distance;
+    }
+
+    private static class Index {
+        // typeId -> (格子 -> 格子内的商铺)
+        private final Map<Long, Map<Long, Cell>> types = new ConcurrentHashMap<>();
+        // shopId -> 当前位置
+        private final Map<Long, Location> locations = new ConcurrentHashMap<>();
+    }
+
+    @AllArgsConstructor
+    private static class Location {
+        private final Long typeId;
+        private final double x;
+        private final double y;
+    }
+
+    /**
+    *@Description: 一个格子内的商铺，不可变
+    */
+    private static class Cell {
+        private final long[] ids;
+        private final double[] xs;
+        private final double[] ys;
+
+        private Cell(long[] ids, double[] xs, double[] ys) {
+            this.ids = ids;
+            this.xs = xs;
+            this.ys = ys;
+        }
+
+        private static Cell of(long id, double x, double y){
+            return new Cell(new long[]{id}, new double[]{x}, new double[]{y});
+        }
+
+        private Cell with(long id, double x, double y){
+            int n = ids.length;
+            long[] newIds = Arrays.copyOf(ids, n + 1);
+            double[] newXs = Arrays.copyOf(xs, n + 1);
+            double[] newYs = Arrays.copyOf(ys, n + 1);
+            newIds[n] = id;
+            newXs[n] = x;
+            newYs[n] = y;
+            return new Cell(newIds, newXs, newYs);
+        }
+
+        /**
+        *@return: 新的格子，格子空了返回null（从map中移除）
+        */
+        private Cell without(long id){
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] != id) {
+                    continue;
+                }
+                if (ids.length == 1) {
+                    return null;
+                }
+                long[] newIds = new long[ids.length - 1];
+                double[] newXs = new double[ids.length - 1];
+                double[] newYs = new double[ids.length - 1];
+                System.arraycopy(ids, 0, newIds, 0, i);
+                System.arraycopy(xs, 0, newXs, 0, i);
+                System.arraycopy(ys, 0, newYs, 0, i);
+                System.arraycopy(ids, i + 1, newIds, i, ids.length - i - 1);
+                System.arraycopy(xs, i + 1, newXs, i, ids.length - i - 1);
+                System.arraycopy(ys, i + 1, newYs, i, ids.length - i - 1);
+                return new Cell(newIds, newXs, newYs);
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.ShopTypeMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @ClassName: ShopGeoSync
+ * @Description: 维护 redis 中的 shop:geo:{typeId}
+ * 1. 写路径：新增/修改商铺提交后读取最新数据，GEOADD 到新类型的key，类型变了再从旧类型的key ZREM（同一个pipeline）
+ * 2. 全量重建：按id键集分页读取 tb_shop，pipeline 写入 shop:geo:{typeId}:rebuild，全部写完后 RENAME 覆盖正式的key（RedisSwapRebuilder）
+ *    重建期间设置 shop:geo:rebuilding 标记，写路径看到标记时同时写临时key，避免 RENAME 覆盖掉重建期间的修改
+ * @Version: 1.0
+ */
+
+@Slf4j
+@Component
+public class ShopGeoSync {
+
+    private static final String LOCK_NAME = "shopgeo:rebuild";
+
+    @Value("${hmdp.shop.geo.redis-batch-size:1000}")
+    private int batchSize;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisScriptRegistry redisScriptRegistry;
+
+    @Autowired
+    private ShopMapper shopMapper;
+
+    @Autowired
+    private ShopTypeMapper shopTypeMapper;
+
+    @Autowired
+    private IndexRebuildExecutor indexRebuildExecutor;
+
+    private RedisSwapRebuilder rebuilder;
+
+    @PostConstruct
+    private void init(){
+        rebuilder = new RedisSwapRebuilder("商铺GEO索引", LOCK_NAME, RedisConstants.SHOP_GEO_REBUILDING_KEY,
+                RedisConstants.SHOP_GEO_REBUILD_TTL, stringRedisTemplate, redisScriptRegistry);
+    }
+
+    /**
+    *@Description: 商铺写入后同步GEO索引，在事务中调用时提交后才执行
+    *@Param: [shopId, oldTypeId 修改前的类型，新增或类型未变时传null]
+    */
+    public void sync(Long shopId, Long oldTypeId){
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            syncQuietly(shopId, oldTypeId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                syncQuietly(shopId, oldTypeId);
+            }
+        });
+    }
+
+    private void syncQuietly(Long shopId, Long oldTypeId){
+        try {
+            Shop shop = shopMapper.selectById(shopId);
+            boolean rebuilding = rebuilder.isRebuilding();
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                byte[] member = shopId.toString().getBytes(StandardCharsets.UTF_8);
+                // 删除或换了类型：从旧类型移除
+                if (oldTypeId != null && (shop == null || !oldTypeId.equals(shop.getTypeId()))) {
+                    remove(connection, oldTypeId, member, rebuilding);
+                }
+                if (shop == null || shop.getTypeId() == null) {
+                    return null;
+                }
+                if (shop.getX() == null || shop.getY() == null) {
+                    remove(connection, shop.getTypeId(), member, rebuilding);
+                    return null;
+                }
+                Point point = new Point(shop.getX(), shop.getY());
+                for (byte[] key : rebuilder.targets(RedisConstants.SHOP_GEO_KEY + shop.getTypeId(), rebuilding)) {
+                    connection.geoAdd(key, point, member);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            // 下次全量重建时修正
+            log.warn("同步商铺GEO索引失败，shopId:{}", shopId, e);
+        }
+    }
+
+    private void remove(RedisConnection connection, Long typeId, byte[] member, boolean rebuilding){
+        for (byte[] key : rebuilder.targets(RedisConstants.SHOP_GEO_KEY + typeId, rebuilding)) {
+            connection.zRem(key, member);
+        }
+    }
+
+    /**
+    *@Description: 定时全量重建，在 IndexRebuildExecutor 里执行，不占用定时任务线程
+    */
+    @Scheduled(initialDelayString = "${hmdp.shop.geo.redis-rebuild-interval:86400000}",
+            fixedDelayString = "${hmdp.shop.geo.redis-rebuild-interval:86400000}")
+    public void scheduledRebuild(){
+        indexRebuildExecutor.submit("shop-geo-redis", this::rebuild);
+    }
+
+    /**
+    *@Description: 全量重建所有类型的GEO索引（新key写完后RENAME替换，不停服）
+    */
+    public void rebuild(){
+        List<Long> allTypeIds = new ArrayList<>();
+        for (ShopType shopType : shopTypeMapper.selectList(new QueryWrapper<ShopType>().select("id"))) {
+            allTypeIds.add(shopType.getId());
+        }
+        rebuilder.rebuild(allTypeIds, typeId -> Collections.singletonList(RedisConstants.SHOP_GEO_KEY + typeId), builtTypeIds -> {
+            // 键集分页读取商铺，pipeline写入临时key
+            long lastId = 0;
+            int count = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "type_id", "x", "y")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + batchSize));
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (Shop shop : shops) {
+                        if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+                            continue;
+                        }
+                        connection.geoAdd(RedisSwapRebuilder.tmp(RedisConstants.SHOP_GEO_KEY + shop.getTypeId()),
+                                new Point(shop.getX(), shop.getY()),
+                                shop.getId().toString().getBytes(StandardCharsets.UTF_8));
+                        builtTypeIds.add(shop.getTypeId());
+                    }
+                    return null;
+                });
+                count += shops.size();
+                if (shops.size() < batchSize) {
+                    return count;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+        });
+    }
+
+    /**
+    *@Description: 最近一次成功重建的统计
+    */
+    public Map<String, Object> stats(){
+        return rebuilder.stats();
+    }
+}
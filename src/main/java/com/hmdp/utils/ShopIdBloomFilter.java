@@ -0,0 +1,139 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+
+/**
+ * @ClassName: ShopIdBloomFilter
+ * @Description: 已存在的商铺id的布隆过滤器，查缓存前先判断，不存在的id直接返回，不再写空值缓存也不查数据库
+ * 启动时按id键集分页读取 tb_shop 构建，新增商铺时通过 ShopChangeBroadcaster 在所有节点加入；删除的id无法从布隆过滤器移除，所以定时全量重建
+ * 重建期间新增的id同时加入新旧两个过滤器，构建完成后替换
+ * 构建完成前（或构建失败）一律返回可能存在，退化为原来的空值缓存
+ * @Version: 1.0
+ */
+
+@Slf4j
+@Component
+public class ShopIdBloomFilter {
+
+    @Value("${hmdp.shop.bloom.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.shop.bloom.fpp:0.01}")
+    private double fpp;
+
+    /**
+    *@Description: 按商铺数的倍数预留容量，给两次重建之间新增的商铺留空间
+    */
+    @Value("${hmdp.shop.bloom.capacity-factor:2}")
+    private int capacityFactor;
+
+    @Value("${hmdp.shop.bloom.batch-size:1000}")
+    private int batchSize;
+
+    @Autowired
+    private ShopMapper shopMapper;
+
+    @Autowired
+    private ShopChangeBroadcaster shopChangeBroadcaster;
+
+    @Autowired
+    private IndexRebuildExecutor indexRebuildExecutor;
+
+    private volatile LongBloomFilter current;
+
+    // 正在重建的过滤器
+    private LongBloomFilter building;
+
+    @PostConstruct
+    private void init(){
+        // 商铺变更广播到所有节点，新增的商铺在每个节点都能立即查到
+        shopChangeBroadcaster.addListener((shopId, shop) -> {
+            if (shop != null) {
+                add(shopId);
+            }
+        });
+    }
+
+    public boolean mightContain(Long id){
+        LongBloomFilter filter = current;
+        if (!enabled || filter == null) {
+            return true;
+        }
+        return id != null && filter.mightContain(id);
+    }
+
+    public synchronized void add(Long id){
+        if (id == null) {
+            return;
+        }
+        if (current != null) {
+            current.add(id);
+        }
+        if (building != null) {
+            building.add(id);
+        }
+    }
+
+    /**
+    *@Description: 定时全量重建，启动时立即执行一次；重建在 IndexRebuildExecutor 里执行，不占用定时任务线程
+    */
+    @Scheduled(initialDelay = 0, fixedDelayString = "${hmdp.shop.bloom.rebuild-interval:21600000}")
+    public void scheduledRebuild(){
+        indexRebuildExecutor.submit("shop-bloom", this::rebuild);
+    }
+
+    /**
+    *@Description: 全量重建
+    */
+    public void rebuild(){
+        if (!enabled) {
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        try {
+            Integer total = shopMapper.selectCount(null);
+            LongBloomFilter filter = new LongBloomFilter(Math.max(10000L, (long) total * capacityFactor), fpp);
+            synchronized (this) {
+                building = filter;
+            }
+            long lastId = 0;
+            long count = 0;
+            while (true) {
+                List<Object> ids = shopMapper.selectObjs(new QueryWrapper<Shop>()
+                        .select("id")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + batchSize));
+                for (Object id : ids) {
+                    lastId = ((Number) id).longValue();
+                    filter.add(lastId);
+                }
+                count += ids.size();
+                if (ids.size() < batchSize) {
+                    break;
+                }
+            }
+            synchronized (this) {
+                current = filter;
+                building = null;
+            }
+            log.info("商铺id布隆过滤器重建完成，商铺数:{}，位数:{}，哈希函数个数:{}，耗时:{}ms",
+                    count, filter.bitSize(), filter.hashCount(), System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            synchronized (this) {
+                building = null;
+            }
+            log.error("商铺id布隆过滤器重建失败，继续使用旧的过滤器", e);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * @ClassName: ShopIndexHolder
+ * @Description: 进程内商铺索引（ShopGeoIndex、ShopNameIndex）的公共部分：持有当前索引，全量重建时构建新索引再替换
+ * 重建按id键集分页读取 tb_shop；重建期间收到的变更同时应用到新旧索引，并记下商铺id，分页读到的旧数据不再覆盖（包括删除）
+ * @Version: 1.0
+ */
+
+@Slf4j
+public class ShopIndexHolder<I> {
+
+    /**
+    *@Description: 把一个商铺的最新状态应用到索引，shop 为 null 表示已删除
+    */
+    public interface Applier<I> {
+        void apply(I index, Long shopId, Shop shop);
+    }
+
+    private final String name;
+    private final Supplier<I> factory;
+    private final Applier<I> applier;
+
+    private volatile I current;
+
+    // 正在重建的索引
+    private I building;
+
+    // 重建期间收到变更的商铺id
+    private final Set<Long> changedDuringBuild = new HashSet<>();
+
+    public ShopIndexHolder(String name, Supplier<I> factory, Applier<I> applier) {
+        this.name = name;
+        this.factory = factory;
+        this.applier = applier;
+    }
+
+    /**
+    *@return: 当前索引，还没建好时返回null
+    */
+    public I current(){
+        return current;
+    }
+
+    /**
+    *@Description: 商铺变更，注册到 ShopChangeBroadcaster
+    */
+    public synchronized void onShopChanged(Long shopId, Shop shop){
+        if (current != null) {
+            applier.apply(current, shopId, shop);
+        }
+        if (building != null) {
+            applier.apply(building, shopId, shop);
+            changedDuringBuild.add(shopId);
+        }
+    }
+
+    /**
+    *@Description: 全量重建，失败时继续使用旧的索引
+    *@Param: [shopMapper, batchSize, columns 需要读取的列，必须包含id]
+    *@return: 新的索引，失败返回null
+    */
+    public I rebuild(ShopMapper shopMapper, int batchSize, String... columns){
+        long begin = System.currentTimeMillis();
+        try {
+            I index = factory.get();
+            synchronized (this) {
+                building = index;
+            }
+            long lastId = 0;
+            int count = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select(columns)
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + batchSize));
+                synchronized (this) {
+                    for (Shop shop : shops) {
+                        // 构建期间已经收到变更的商铺以变更为准
+                        if (!changedDuringBuild.contains(shop.getId())) {
+                            applier.apply(index, shop.getId(), shop);
+                        }
+                    }
+                }
+                count += shops.size();
+                if (shops.size() < batchSize) {
+                    break;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            synchronized (this) {
+                current = index;
+                building = null;
+                changedDuringBuild.clear();
+            }
+            log.info("{}重建完成，商铺数:{}，耗时:{}ms", name, count, System.currentTimeMillis() - begin);
+            return index;
+        } catch (Exception e) {
+            synchronized (this) {
+                building = null;
+                changedDuringBuild.clear();
+            }
+            log.error("{}重建失败，继续使用旧的索引", name, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @ClassName: ShopNameIndex
+ * @Description: 商铺名称的进程内倒排索引，代替 LIKE '%name%' 全表扫描
+ * 名称统一小写后（保留空白），按单字和相邻两字（bigram，中文按字切分天然适用）建立 gram -> 商铺id 的倒排表
+ * 查询时取查询词各个 gram 中倒排表最短的一个作为候选，再用 contains 校验，结果与 LIKE 一致；按评分、销量降序排序后分页
+ * 启动时按id键集分页读取 tb_shop 构建，之后通过 ShopChangeBroadcaster 增量更新，并定时全量重建兜底（ShopIndexHolder）
+ * @Version: 1.0
+ */
+
+@Component
+public class ShopNameIndex {
+
+    // 评分降序、销量降序、id升序
+    private static final Comparator<Doc> RANK = Comparator.comparingInt((Doc doc) -> doc.score).reversed()
+            .thenComparing(Comparator.comparingInt((Doc doc) -> doc.sold).reversed())
+            .thenComparingLong(doc -> doc.id);
+
+    @Value("${hmdp.shop.name-index.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.shop.name-index.batch-size:1000}")
+    private int batchSize;
+
+    @Autowired
+    private ShopMapper shopMapper;
+
+    @Autowired
+    private ShopChangeBroadcaster shopChangeBroadcaster;
+
+    @Autowired
+    private IndexRebuildExecutor indexRebuildExecutor;
+
+    private final ShopIndexHolder<Index> holder = new ShopIndexHolder<>("商铺名称索引", Index::new, ShopNameIndex::apply);
+
+    @PostConstruct
+    private void init(){
+        shopChangeBroadcaster.addListener(holder::onShopChanged);
+    }
+
+    public boolean isReady(){
+        return enabled && holder.current() != null;
+    }
+
+    /**
+    *@Description: 按名称关键字搜索，返回排序后第 from ~ from+size 个商铺的id
+    *@Param: [name 关键字, from, size]
+    */
+    public List<Long> search(String name, int from, int size){
+        Index index = holder.current();
+        String query = normalize(name);
+        if (index == null || query.isEmpty() || size <= 0) {
+            return Collections.emptyList();
+        }
+        // 1.取倒排表最短的 gram 作为候选集
+        Set<Long> candidates = null;
+        for (String gram : queryGrams(query)) {
+            Set<Long> posting = index.postings.get(gram);
+            if (posting == null) {
+                return Collections.emptyList();
+            }
+            if (candidates == null || posting.size() < candidates.size()) {
+                candidates = posting;
+            }
+        }
+        // 2.校验包含关系，用小顶堆保留排名前 from+size 个
+        int limit = from + size;
+        PriorityQueue<Doc> heap = new PriorityQueue<>(RANK.reversed());
+        for (Long id : candidates) {
+            Doc doc = index.docs.get(id);
+            if (doc == null || !doc.name.contains(query)) {
+                continue;
+            }
+            if (heap.size() < limit) {
+                heap.add(doc);
+            } else if (RANK.compare(doc, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(doc);
+            }
+        }
+        if (heap.size() <= from) {
+            return Collections.emptyList();
+        }
+        List<Doc> ranked = new ArrayList<>(heap);
+        ranked.sort(RANK);
+        List<Long> ids = new ArrayList<>(ranked.size() - from);
+        for (Doc doc : ranked.subList(from, ranked.size())) {
+            ids.add(doc.id);
+        }
+        return ids;
+    }
+
+    /**
+    *@Description: 定时全量重建，启动时立即执行一次；重建在 IndexRebuildExecutor 里执行，不占用定时任务线程
+    */
+    @Scheduled(initialDelay = 0, fixedDelayString = "${hmdp.shop.name-index.rebuild-interval:3600000}")
+    public void scheduledRebuild(){
+        indexRebuildExecutor.submit("shop-name-index", this::rebuild);
+    }
+
+    /**
+    *@Description: 全量重建
+    */
+    public void rebuild(){
+        if (enabled) {
+            holder.rebuild(shopMapper, batchSize, "id", "name", "score", "sold");
+        }
+    }
+
+    /**
+    *@Description: 先移除旧名称的 gram，再按新名称加入；shop 为 null 表示已删除
+    */
+    private static void apply(Index index, Long shopId, Shop shop){
+        Doc old = index.docs.remove(shopId);
+        if (old != null) {
+            for (String gram : grams(old.name)) {
+                index.postings.computeIfPresent(gram, (k, posting) -> {
+                    posting.remove(shopId);
+                    return posting.isEmpty() ? null : posting;
+                });
+            }
+        }
+        if (shop == null) {
+            return;
+        }
+        String name = normalize(shop.getName());
+        Doc doc = new Doc(shopId, name,
+                shop.getScore() == null ? 0 : shop.getScore(),
+                shop.getSold() == null ? 0 : shop.getSold());
+        index.docs.put(shopId, doc);
+        for (String gram : grams(name)) {
+            index.postings.computeIfAbsent(gram, k -> ConcurrentHashMap.newKeySet()).add(shopId);
+        }
+    }
+
+    // 统一小写；空白保留，与 LIKE 一样 "a b" 不匹配 "ab"
+    private static String normalize(String name){
+        return name == null ? "" : name.toLowerCase(Locale.ROOT);
+    }
+
+    // 名称的所有单字和bigram
+    private static Set<String> grams(String name){
+        Set<String> grams = new LinkedHashSet<>(name.length() * 2);
+        for (int i = 0; i < name.length(); i++) {
+            grams.add(name.substring(i, i + 1));
+            if (i + 1 < name.length()) {
+                grams.add(name.substring(i, i + 2));
+            }
+        }
+        return grams;
+    }
+
+    // 查询词只有一个字时用单字，否则用所有bigram
+    private static Set<String> queryGrams(String query){
+        if (query.length() == 1) {
+            return Collections.singleton(query);
+        }
+        Set<String> grams = new LinkedHashSet<>(query.length());
+        for (int i = 0; i + 1 < query.length(); i++) {
+            grams.add(query.substring(i, i + 2));
+        }
+        return grams;
+    }
+
+    private static class Index {
+        // shopId -> 排序和校验用的字段
+        private final Map<Long, Doc> docs = new ConcurrentHashMap<>();
+        // gram -> shopId集合
+        private final Map<String, Set<Long>> postings = new ConcurrentHashMap<>();
+    }
+
+    private static class Doc {
+        private final long id;
+        private final String name;
+        private final int score;
+        private final int sold;
+
+        private Doc(long id, String name, int score, int sold) {
+            this.id = id;
+            this.name = name;
+            this.score = score;
+            this.sold = sold;
+        }
+    }
+}
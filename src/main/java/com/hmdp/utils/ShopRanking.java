@@ -0,0 +1,221 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.ShopTypeMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @ClassName: ShopRanking
+ * @Description: 按类型的商铺排行榜，每个 typeId 每个指标（评分、销量、评论数）一个 zset：shop:rank:{metric}:{typeId}，member 为商铺id，score 为指标值
+ * 1. 写路径：商铺的类型或指标变化提交后读取最新数据，ZADD 到新类型的三个榜单，类型变了再从旧类型的榜单 ZREM
+ *    写入的是数据库中的绝对值而不是增量，重复执行或乱序执行不会累积误差
+ * 2. 全量重建：写入 {key}:rebuild 临时key，写完后 RENAME 覆盖，重建期间写路径同时写临时key（RedisSwapRebuilder，与 ShopGeoSync 相同）
+ *    shop:rank:built 在一个重建周期内存在，多个节点重启时不会重复重建
+ * @Version: 1.0
+ */
+
+@Slf4j
+@Component
+public class ShopRanking {
+
+    public static final String SCORE = "score";
+    public static final String SOLD = "sold";
+    public static final String COMMENTS = "comments";
+    public static final List<String> METRICS = Arrays.asList(SCORE, SOLD, COMMENTS);
+
+    private static final String LOCK_NAME = "shoprank:rebuild";
+
+    @Value("${hmdp.shop.rank.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${hmdp.shop.rank.rebuild-interval:86400000}")
+    private long rebuildInterval;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisScriptRegistry redisScriptRegistry;
+
+    @Autowired
+    private ShopMapper shopMapper;
+
+    @Autowired
+    private ShopTypeMapper shopTypeMapper;
+
+    @Autowired
+    private IndexRebuildExecutor indexRebuildExecutor;
+
+    private RedisSwapRebuilder rebuilder;
+
+    @PostConstruct
+    private void init(){
+        rebuilder = new RedisSwapRebuilder("商铺排行榜", LOCK_NAME, RedisConstants.SHOP_RANK_REBUILDING_KEY,
+                RedisConstants.SHOP_RANK_REBUILD_TTL, stringRedisTemplate, redisScriptRegistry);
+    }
+
+    public static String key(String metric, Long typeId){
+        return RedisConstants.SHOP_RANK_KEY + metric + ":" + typeId;
+    }
+
+    /**
+    *@Description: 商铺写入后更新排行榜，在事务中调用时提交后才执行
+    *@Param: [shopId, oldTypeId 修改前的类型，新增或类型未变时传null]
+    */
+    public void sync(Long shopId, Long oldTypeId){
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            syncQuietly(shopId, oldTypeId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                syncQuietly(shopId, oldTypeId);
+            }
+        });
+    }
+
+    private void syncQuietly(Long shopId, Long oldTypeId){
+        try {
+            Shop shop = shopMapper.selectById(shopId);
+            boolean rebuilding = rebuilder.isRebuilding();
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                byte[] member = shopId.toString().getBytes(StandardCharsets.UTF_8);
+                for (String metric : METRICS) {
+                    // 删除或换了类型：从旧类型的榜单移除
+                    if (oldTypeId != null && (shop == null || !oldTypeId.equals(shop.getTypeId()))) {
+                        zRem(connection, key(metric, oldTypeId), member, rebuilding);
+                    }
+                    if (shop == null || shop.getTypeId() == null) {
+                        continue;
+                    }
+                    zAdd(connection, key(metric, shop.getTypeId()), value(shop, metric), member, rebuilding);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            // 下次全量重建时修正
+            log.warn("更新商铺排行榜失败，shopId:{}", shopId, e);
+        }
+    }
+
+    private void zAdd(RedisConnection connection, String key, double value, byte[] member, boolean rebuilding){
+        for (byte[] target : rebuilder.targets(key, rebuilding)) {
+            connection.zAdd(target, value, member);
+        }
+    }
+
+    private void zRem(RedisConnection connection, String key, byte[] member, boolean rebuilding){
+        for (byte[] target : rebuilder.targets(key, rebuilding)) {
+            connection.zRem(target, member);
+        }
+    }
+
+    /**
+    *@Description: 定时重建，一个重建周期内已经有节点重建过则跳过（启动时也会执行），在 IndexRebuildExecutor 里执行
+    */
+    @Scheduled(initialDelay = 0, fixedDelayString = "${hmdp.shop.rank.rebuild-interval:86400000}")
+    public void scheduledRebuild(){
+        indexRebuildExecutor.submit("shop-rank", () -> {
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.SHOP_RANK_BUILT_KEY))) {
+                return;
+            }
+            rebuild();
+        });
+    }
+
+    /**
+    *@Description: 全量重建所有类型的排行榜（新key写完后RENAME替换，不停服）
+    */
+    public void rebuild(){
+        List<Long> allTypeIds = new ArrayList<>();
+        for (ShopType shopType : shopTypeMapper.selectList(new QueryWrapper<ShopType>().select("id"))) {
+            allTypeIds.add(shopType.getId());
+        }
+        boolean success = rebuilder.rebuild(allTypeIds, ShopRanking::keys, builtTypeIds -> {
+            // 键集分页读取商铺，pipeline写入临时key
+            long lastId = 0;
+            int count = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "type_id", "score", "sold", "comments")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + batchSize));
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (Shop shop : shops) {
+                        if (shop.getTypeId() == null) {
+                            continue;
+                        }
+                        byte[] member = shop.getId().toString().getBytes(StandardCharsets.UTF_8);
+                        for (String metric : METRICS) {
+                            connection.zAdd(RedisSwapRebuilder.tmp(key(metric, shop.getTypeId())), value(shop, metric), member);
+                        }
+                        builtTypeIds.add(shop.getTypeId());
+                    }
+                    return null;
+                });
+                count += shops.size();
+                if (shops.size() < batchSize) {
+                    return count;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+        });
+        if (success) {
+            stringRedisTemplate.opsForValue().set(RedisConstants.SHOP_RANK_BUILT_KEY, String.valueOf(System.currentTimeMillis()),
+                    rebuildInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+    *@Description: 最近一次成功重建的统计（本节点执行的）
+    */
+    public Map<String, Object> stats(){
+        return rebuilder.stats();
+    }
+
+    // 一个类型的所有榜单
+    private static List<String> keys(Long typeId){
+        List<String> keys = new ArrayList<>(METRICS.size());
+        for (String metric : METRICS) {
+            keys.add(key(metric, typeId));
+        }
+        return keys;
+    }
+
+    private static double value(Shop shop, String metric){
+        Integer value;
+        switch (metric) {
+            case SCORE:
+                value = shop.getScore();
+                break;
+            case SOLD:
+                value = shop.getSold();
+                break;
+            default:
+                value = shop.getComments();
+        }
+        return value == null ? 0 : value;
+    }
+}
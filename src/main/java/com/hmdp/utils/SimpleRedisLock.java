@@ -1,10 +1,7 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.lang.UUID;
-import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
-import org.springframework.data.redis.core.script.RedisScript;
 
 import java.util.Collections;
 import java.util.concurrent.TimeUnit;
@@ -19,10 +16,12 @@ import java.util.concurrent.TimeUnit;
 public class SimpleRedisLock implements ILock{
 
     private StringRedisTemplate stringRedisTemplate;
+    private RedisScriptRegistry redisScriptRegistry;
     private String name;  //业务的名称（也就是锁的名称）
 
-    public SimpleRedisLock(String name, StringRedisTemplate stringRedisTemplate) {
+    public SimpleRedisLock(String name, StringRedisTemplate stringRedisTemplate, RedisScriptRegistry redisScriptRegistry) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.redisScriptRegistry = redisScriptRegistry;
         this.name = name;
     }
 
@@ -38,13 +37,6 @@ public class SimpleRedisLock implements ILock{
     */
     private static final String ID_PREFIX = UUID.randomUUID().toString(true)+"-";   //线程标识前缀(区分集群下不同主机(不同JVM) 而ThreadID在jvm内部是自增生成的)
 
-    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
-    static {
-        UNLOCK_SCRIPT = new DefaultRedisScript<>();
-        UNLOCK_SCRIPT.setLocation(new ClassPathResource("./lua/unlock.lua"));
-        UNLOCK_SCRIPT.setResultType(Long.class);
-    }
-
     @Override
     public boolean tryLock(long timeoutSec) {
         //获取线程标识  (UUID:区分不同JVM + 线程id：区分同一个JVM中的不同线程)
@@ -60,9 +52,9 @@ public class SimpleRedisLock implements ILock{
     */
     @Override
     public void unlock() {
-        //调用lua脚本
-        stringRedisTemplate.execute(
-                UNLOCK_SCRIPT,
+        //调用lua脚本 unlock.lua
+        redisScriptRegistry.execute(
+                "unlock",
                 Collections.singletonList(KEY_PREFIX + name),
                 ID_PREFIX + Thread.currentThread().getId()
                 );
@@ -0,0 +1,14 @@
+-- 缓存值格式迁移：key 的值仍是读到的旧值时才改写为新格式，并保留剩余的TTL
+-- KEYS[1] 缓存key
+-- ARGV[1] 读到的旧值  ARGV[2] 新格式的值
+-- 返回1表示已改写，0表示值已经变了（被重新写入或删除），不覆盖
+if (redis.call('get', KEYS[1]) ~= ARGV[1]) then
+    return 0
+end
+local ttl = redis.call('pttl', KEYS[1])
+if (ttl > 0) then
+    redis.call('set', KEYS[1], ARGV[2], 'PX', ttl)
+else
+    redis.call('set', KEYS[1], ARGV[2])
+end
+return 1
@@ -1,32 +1,47 @@
 -- 1. 参数列表
--- 1.1 优惠券id
-local voucherId = ARGV[1]
--- 1.2 用户id
-local userId = ARGV[2]
--- 1.3 订单id
-local orderId = ARGV[3]
---2.数据key
--- 2.1 库存key
-local stockKey = 'seckill:stock:' .. voucherId
--- 2.2 订单key
-local orderKey = 'seckill:order:' .. voucherId
+-- 1.1 库存key（分片模式下为用户所在分片的库存key）
+local stockKey = KEYS[1]
+-- 1.2 一人一单的去重key（与库存key同一个分片）
+-- 两个key都带 {voucherId} hash tag，集群模式下在同一个slot，脚本只访问 KEYS 中声明的key
+local orderKey = KEYS[2]
+-- 1.3 用户id
+local userId = ARGV[1]
+-- 1.4 一人一单的去重方式  set: 用户id集合   bitmap: 以用户id为偏移量的位图
+local dedup = ARGV[2]
+-- 1.5 去重key的过期时间点（秒级时间戳，秒杀结束后一段时间）
+local expireAt = ARGV[3]
+-- 1.6 分片数（bitmap模式下同一分片的用户id都满足 userId % shards == shard，偏移量用 userId / shards 压缩位图）
+local shards = tonumber(ARGV[4])
 
---3. 脚本业务
---3.1 判断库存是否充足
-if( tonumber(redis.call('get',stockKey))  <= 0) then
+--2. 脚本业务
+--2.1 判断库存是否充足
+local stock = tonumber(redis.call('get', stockKey))
+if (stock == nil or stock <= 0) then
     return 1
 end
 
---3.2 判断用户是否下单
-if( redis.call('sismember',orderKey,userId) == 1 ) then
+--2.2 判断用户是否下单
+local offset = 0
+if (dedup == 'bitmap') then
+    offset = math.floor(tonumber(userId) / shards)
+    if( redis.call('getbit',orderKey,offset) == 1 ) then
+        return 2
+    end
+elseif( redis.call('sismember',orderKey,userId) == 1 ) then
     return 2
 end
 
 -- 扣库存，保存用户
 redis.call('incrby',stockKey,-1)
-redis.call('sadd',orderKey,userId)
-
--- 发送消息到stram消息队列 (消费组模式)
-redis.call('xadd', 'stream.order', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+if (dedup == 'bitmap') then
+    redis.call('setbit',orderKey,offset,1)
+else
+    redis.call('sadd',orderKey,userId)
+end
+-- 去重key在秒杀结束后自动过期
+if (expireAt ~= nil and expireAt ~= '') then
+    redis.call('expireat',orderKey,expireAt)
+end
 
-return 0
\ No newline at end of file
+-- 订单消息由调用方发送到 stream.order（stream 与各张券的key不在同一个slot）
+return 0
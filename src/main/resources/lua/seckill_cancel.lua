@@ -0,0 +1,14 @@
+-- 撤销一次秒杀资格（seckill.lua 扣减成功但订单消息没有发出去时），退回库存并去掉下单记录
+-- KEYS[1] 库存key  KEYS[2] 去重key（与 seckill.lua 相同）
+-- ARGV[1] 用户id  ARGV[2] 去重方式 set/bitmap  ARGV[3] 分片数
+-- 返回1表示已撤销，0表示用户不在去重结构中（已经撤销过）
+local removed
+if (ARGV[2] == 'bitmap') then
+    removed = redis.call('setbit', KEYS[2], math.floor(tonumber(ARGV[1]) / tonumber(ARGV[3])), 0)
+else
+    removed = redis.call('srem', KEYS[2], ARGV[1])
+end
+if (removed == 1) then
+    redis.call('incrby', KEYS[1], 1)
+end
+return removed
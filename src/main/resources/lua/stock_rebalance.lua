@@ -0,0 +1,26 @@
+-- 分片库存再平衡：从库存最多的分片借一半给卖空的分片，借出和转入在同一个脚本里原子完成
+-- KEYS 同一张券的所有分片库存key（带相同的 {voucherId} hash tag，在同一个slot）
+-- ARGV[1] 卖空的分片在 KEYS 中的下标（从1开始）
+-- 返回卖空的分片可用的库存数，0表示所有分片都没有库存了
+local dry = tonumber(ARGV[1])
+local dryStock = tonumber(redis.call('get', KEYS[dry]) or '0')
+if (dryStock > 0) then
+    -- 已经被其它请求补过了
+    return dryStock
+end
+local donor = 0
+local maxStock = 0
+for i = 1, #KEYS do
+    local stock = tonumber(redis.call('get', KEYS[i]) or '0')
+    if (i ~= dry and stock > maxStock) then
+        donor = i
+        maxStock = stock
+    end
+end
+if (donor == 0) then
+    return 0
+end
+local count = math.floor((maxStock + 1) / 2)
+redis.call('decrby', KEYS[donor], count)
+redis.call('incrby', KEYS[dry], count)
+return count
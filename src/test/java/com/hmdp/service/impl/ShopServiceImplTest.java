@@ -0,0 +1,54 @@
+package com.hmdp.service.impl;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShopServiceImplTest {
+
+    private static String encode(ShopServiceImpl.GeoCursor cursor) {
+        return ReflectionTestUtils.invokeMethod(ShopServiceImpl.class, "encodeCursor", cursor);
+    }
+
+    private static ShopServiceImpl.GeoCursor decode(String cursor) {
+        return ReflectionTestUtils.invokeMethod(ShopServiceImpl.class, "decodeCursor", cursor);
+    }
+
+    private static String base64(String text) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testCursorRoundTrip() {
+        String cursor = encode(new ShopServiceImpl.GeoCursor(114.3051234567, -30.59, 1234.5678901234, 9876543210L));
+        // url安全，不带填充
+        assertTrue(cursor.matches("[A-Za-z0-9_-]+"));
+        ShopServiceImpl.GeoCursor decoded = decode(cursor);
+        // 距离必须原样还原，否则下一页会重复或漏掉距离相同的商铺
+        assertEquals(114.3051234567, decoded.x);
+        assertEquals(-30.59, decoded.y);
+        assertEquals(1234.5678901234, decoded.distance);
+        assertEquals(9876543210L, decoded.id);
+    }
+
+    @Test
+    void testInvalidCursorIsRejected() {
+        // 不是base64
+        assertNull(decode("@@@"));
+        // 缺少部分、多余的部分、不是数字
+        assertNull(decode(base64("114.3:30.5:10")));
+        assertNull(decode(base64("114.3:30.5:10:1:2")));
+        assertNull(decode(base64("114.3:30.5:abc:1")));
+        assertNull(decode(base64("114.3:30.5:10:1.5")));
+        // 坐标越界、距离为负或非有限值
+        assertNull(decode(base64("181:30.5:10:1")));
+        assertNull(decode(base64("114.3:91:10:1")));
+        assertNull(decode(base64("114.3:30.5:-1:1")));
+        assertNull(decode(base64("114.3:30.5:NaN:1")));
+        assertNull(decode(base64("114.3:30.5:Infinity:1")));
+    }
+}
@@ -0,0 +1,246 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Blog;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class CacheClientTest {
+
+    private static final String PREFIX = RedisConstants.CACHE_BLOG_KEY;
+
+    private FakeRedis redis;
+    private HotKeyDetector hotKeyDetector;
+    private CacheClient cacheClient;
+
+    @BeforeEach
+    void setUp() {
+        redis = new FakeRedis();
+        hotKeyDetector = new HotKeyDetector();
+        ReflectionTestUtils.setField(hotKeyDetector, "enabled", true);
+        ReflectionTestUtils.setField(hotKeyDetector, "width", 256);
+        ReflectionTestUtils.setField(hotKeyDetector, "slots", 2);
+        ReflectionTestUtils.setField(hotKeyDetector, "threshold", 3);
+        ReflectionTestUtils.setField(hotKeyDetector, "sampleOneIn", 1);
+        ReflectionTestUtils.setField(hotKeyDetector, "capacity", 10);
+        ReflectionTestUtils.invokeMethod(hotKeyDetector, "init");
+
+        cacheClient = new CacheClient();
+        ReflectionTestUtils.setField(cacheClient, "stringRedisTemplate", redis.template);
+        ReflectionTestUtils.setField(cacheClient, "listenerContainer", mock(RedisMessageListenerContainer.class));
+        ReflectionTestUtils.setField(cacheClient, "redisScriptRegistry", redis.scripts);
+        ReflectionTestUtils.setField(cacheClient, "hotKeyDetector", hotKeyDetector);
+        ReflectionTestUtils.setField(cacheClient, "cacheMetrics", new CacheMetrics());
+        ReflectionTestUtils.setField(cacheClient, "hotLocalSize", 100);
+        ReflectionTestUtils.setField(cacheClient, "hotLocalTtlMillis", 60_000L);
+        ReflectionTestUtils.setField(cacheClient, "defaultCodecName", JacksonCacheCodec.JSON);
+        ReflectionTestUtils.setField(cacheClient, "refreshThreads", 1);
+        ReflectionTestUtils.setField(cacheClient, "refreshQueueCapacity", 10);
+        ReflectionTestUtils.invokeMethod(cacheClient, "init");
+
+        Blog blog = new Blog();
+        blog.setId(1L);
+        blog.setTitle("探店");
+        cacheClient.set(PREFIX + 1, blog, 30L, TimeUnit.MINUTES);
+    }
+
+    private Blog query() {
+        return cacheClient.queryWithPassThrough(PREFIX, 1L, Blog.class, 30L, TimeUnit.MINUTES, id -> {
+            throw new AssertionError("已缓存的key不应该查数据库");
+        });
+    }
+
+    private void promote() {
+        for (int i = 0; i < 5; i++) {
+            query();
+        }
+        assertTrue(hotKeyDetector.isHot(PREFIX + 1));
+    }
+
+    @Test
+    void testHotKeyIsServedFromSharedInstance() {
+        promote();
+        assertSame(query(), query());
+    }
+
+    @Test
+    void testHotLocalDisabledGivesEachUserOwnInstance() throws Exception {
+        cacheClient.disableHotLocalCache(PREFIX);
+        promote();
+
+        // 两个用户同时查询同一个热key，各自设置是否点赞，互不影响
+        ExecutorService es = Executors.newFixedThreadPool(2);
+        CountDownLatch ready = new CountDownLatch(2);
+        try {
+            Future<Blog> user1 = es.submit(() -> likeAs(ready, true));
+            Future<Blog> user2 = es.submit(() -> likeAs(ready, false));
+            Blog blog1 = user1.get(5, TimeUnit.SECONDS);
+            Blog blog2 = user2.get(5, TimeUnit.SECONDS);
+            assertNotSame(blog1, blog2);
+            assertTrue(blog1.getIsLike());
+            assertFalse(blog2.getIsLike());
+            assertNull(query().getIsLike());
+        } finally {
+            es.shutdownNow();
+        }
+    }
+
+    private Blog likeAs(CountDownLatch ready, boolean isLike) throws InterruptedException {
+        Blog blog = query();
+        ready.countDown();
+        ready.await(5, TimeUnit.SECONDS);
+        blog.setIsLike(isLike);
+        // 等另一个用户也写完再返回
+        Thread.sleep(50);
+        return blog;
+    }
+
+    @Test
+    void testSetBatchSpreadsTtlWithJitter() {
+        Map<String, Blog> values = new HashMap<>();
+        for (long id = 100; id < 200; id++) {
+            Blog blog = new Blog();
+            blog.setId(id);
+            values.put(PREFIX + id, blog);
+        }
+        cacheClient.setBatch(values, 30L, 10L, TimeUnit.MINUTES);
+
+        Set<Long> distinct = new HashSet<>();
+        for (String key : values.keySet()) {
+            long ttl = redis.ttls.get(key);
+            assertTrue(ttl >= TimeUnit.MINUTES.toMillis(30) && ttl < TimeUnit.MINUTES.toMillis(40));
+            distinct.add(ttl);
+        }
+        // 100个key不应该落在同一个过期时间上
+        assertTrue(distinct.size() > 50);
+    }
+
+    @Test
+    void testBatchQueryDeduplicatesIdsAndCountsWrites() {
+        CacheMetrics metrics = new CacheMetrics();
+        ReflectionTestUtils.setField(cacheClient, "cacheMetrics", metrics);
+        List<List<Long>> loads = new ArrayList<>();
+        List<Blog> result = cacheClient.queryBatchWithPassThrough(PREFIX, Arrays.asList(2L, 3L, 2L, 1L, 3L), Blog.class,
+                30L, TimeUnit.MINUTES, ids -> {
+                    loads.add(new ArrayList<>(ids));
+                    Blog blog = new Blog();
+                    blog.setId(2L);
+                    return Collections.singletonList(blog);
+                }, Blog::getId);
+
+        // 重复的id只查一次数据库，按首次出现的顺序
+        assertEquals(Collections.singletonList(Arrays.asList(2L, 3L)), loads);
+        List<Long> ids = new ArrayList<>();
+        for (Blog blog : result) {
+            ids.add(blog.getId());
+        }
+        assertEquals(Arrays.asList(2L, 2L, 1L), ids);
+        assertTrue(redis.data.containsKey(PREFIX + 2));
+        assertEquals(0, redis.data.get(PREFIX + 3).length);
+        assertTrue(metrics.scrape().contains("prefix=\"" + PREFIX + "\",event=\"write\"} 1\n"));
+    }
+
+    @Test
+    void testValueHeader() {
+        byte[] raw = redis.data.get(PREFIX + 1);
+        ByteBuffer buffer = ByteBuffer.wrap(raw);
+        // [魔数][编解码器tag][逻辑过期时间][数据]
+        assertEquals((byte) 0xC0, buffer.get());
+        assertEquals(JacksonCacheCodec.json().tag(), buffer.get());
+        assertEquals(0L, buffer.getLong());
+        String json = new String(raw, 10, raw.length - 10, StandardCharsets.UTF_8);
+        assertEquals("探店", JSONUtil.parseObj(json).getStr("title"));
+
+        cacheClient.setWithLogicExpire(PREFIX + 2, new Blog(), 10L, TimeUnit.SECONDS);
+        long expireMillis = ByteBuffer.wrap(redis.data.get(PREFIX + 2), 2, 8).getLong();
+        assertTrue(Math.abs(expireMillis - System.currentTimeMillis() - 10_000) < 1000);
+    }
+
+    @Test
+    void testCodecSwitchKeepsOldValuesReadable() {
+        cacheClient.useCodec(PREFIX, JacksonCacheCodec.SMILE);
+        Blog blog = new Blog();
+        blog.setId(2L);
+        blog.setTitle("smile");
+        cacheClient.set(PREFIX + 2, blog, 30L, TimeUnit.MINUTES);
+        assertEquals(JacksonCacheCodec.smile().tag(), redis.data.get(PREFIX + 2)[1]);
+
+        // 切回json后，smile写入的值按自身的tag解码，json写入的值也照常读取
+        cacheClient.useCodec(PREFIX, JacksonCacheCodec.JSON);
+        assertEquals("smile", cacheClient.get(PREFIX + 2, Blog.class).getTitle());
+        assertEquals("探店", cacheClient.get(PREFIX + 1, Blog.class).getTitle());
+    }
+
+    @Test
+    void testLegacyJsonIsMigratedKeepingTtl() {
+        Blog blog = new Blog();
+        blog.setId(3L);
+        blog.setTitle("旧格式");
+        redis.data.put(PREFIX + 3, JSONUtil.toJsonStr(blog).getBytes(StandardCharsets.UTF_8));
+        redis.ttls.put(PREFIX + 3, 60_000L);
+
+        assertEquals("旧格式", cacheClient.get(PREFIX + 3, Blog.class).getTitle());
+        // 按新格式重写，保留剩余TTL
+        assertEquals((byte) 0xC0, redis.data.get(PREFIX + 3)[0]);
+        assertEquals(60_000L, redis.ttls.get(PREFIX + 3));
+        assertEquals("旧格式", cacheClient.get(PREFIX + 3, Blog.class).getTitle());
+    }
+
+    @Test
+    void testLegacyValueRewrittenAfterReadIsKept() {
+        Blog blog = new Blog();
+        blog.setTitle("旧格式");
+        byte[] legacy = JSONUtil.toJsonStr(blog).getBytes(StandardCharsets.UTF_8);
+        // 读到旧值之后，key 已经被其它请求按新格式重写
+        Blog newer = new Blog();
+        newer.setTitle("新值");
+        cacheClient.set(PREFIX + 5, newer, 1L, TimeUnit.MINUTES);
+        byte[] current = redis.data.get(PREFIX + 5);
+
+        ReflectionTestUtils.invokeMethod(cacheClient, "decode", PREFIX + 5, legacy, Blog.class, false);
+        assertSame(current, redis.data.get(PREFIX + 5));
+        assertEquals("新值", cacheClient.get(PREFIX + 5, Blog.class).getTitle());
+    }
+
+    @Test
+    void testLegacyLogicExpireValueIsMigrated() {
+        Blog blog = new Blog();
+        blog.setTitle("逻辑过期");
+        LocalDateTime expireTime = LocalDateTime.now().plusMinutes(5).withNano(0);
+        RedisData redisData = new RedisData();
+        redisData.setData(blog);
+        redisData.setExpireTime(expireTime);
+        byte[] legacy = JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+        redis.data.put(PREFIX + 4, legacy);
+
+        Object decoded = ReflectionTestUtils.invokeMethod(cacheClient, "decode", PREFIX + 4, legacy, Blog.class, true);
+        assertEquals("逻辑过期", ((Blog) ReflectionTestUtils.getField(decoded, "data")).getTitle());
+        long expireMillis = expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        assertEquals(expireMillis, ReflectionTestUtils.getField(decoded, "expireMillis"));
+        // 重写后逻辑过期时间在头部
+        assertEquals(expireMillis, ByteBuffer.wrap(redis.data.get(PREFIX + 4), 2, 8).getLong());
+    }
+}
@@ -0,0 +1,91 @@
+package com.hmdp.utils;
+
+import org.mockito.ArgumentMatchers;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @ClassName: FakeRedis
+ * @Description: 单元测试用：基于内存Map的 StringRedisTemplate，只支持 CacheClient 用到的 GET/SET/MGET/PTTL 和 pipeline
+ * 以及 RedisScriptRegistry 中的 cache_migrate 脚本
+ * @Version: 1.0
+ */
+class FakeRedis {
+
+    // key -> 值（只记录过期时间，不模拟过期）
+    final Map<String, byte[]> data = new ConcurrentHashMap<>();
+
+    // key -> 写入时设置的过期时间（毫秒）
+    final Map<String, Long> ttls = new ConcurrentHashMap<>();
+
+    final StringRedisTemplate template = mock(StringRedisTemplate.class);
+
+    final RedisScriptRegistry scripts = mock(RedisScriptRegistry.class);
+
+    private final RedisConnection connection = mock(RedisConnection.class);
+
+    @SuppressWarnings("unchecked")
+    FakeRedis() {
+        when(connection.get(any(byte[].class))).thenAnswer(inv -> data.get(key(inv.getArgument(0))));
+        when(connection.set(any(byte[].class), any(byte[].class))).thenAnswer(inv -> {
+            data.put(key(inv.getArgument(0)), inv.getArgument(1));
+            ttls.remove(key(inv.getArgument(0)));
+            return true;
+        });
+        when(connection.set(any(byte[].class), any(byte[].class), any(Expiration.class), any(RedisStringCommands.SetOption.class)))
+                .thenAnswer(inv -> {
+                    data.put(key(inv.getArgument(0)), inv.getArgument(1));
+                    ttls.put(key(inv.getArgument(0)), ((Expiration) inv.getArgument(2)).getExpirationTimeInMilliseconds());
+                    return true;
+                });
+        when(connection.mGet(ArgumentMatchers.<byte[]>any())).thenAnswer(inv -> {
+            List<byte[]> values = new ArrayList<>();
+            for (Object rawKey : inv.getArguments()) {
+                values.add(data.get(key((byte[]) rawKey)));
+            }
+            return values;
+        });
+        when(connection.pTtl(any(byte[].class))).thenAnswer(inv -> {
+            String key = key(inv.getArgument(0));
+            return data.containsKey(key) ? ttls.getOrDefault(key, -1L) : -2L;
+        });
+        when(template.execute(any(RedisCallback.class)))
+                .thenAnswer(inv -> ((RedisCallback<Object>) inv.getArgument(0)).doInRedis(connection));
+        when(template.executePipelined(any(RedisCallback.class))).thenAnswer(inv -> {
+            ((RedisCallback<Object>) inv.getArgument(0)).doInRedis(connection);
+            return Collections.emptyList();
+        });
+        // cache_migrate.lua：值仍是旧值时改写，TTL不变
+        when(scripts.executeRaw(eq("cache_migrate"), anyList(), ArgumentMatchers.<byte[]>any())).thenAnswer(inv -> {
+            String key = ((List<String>) inv.getArgument(1)).get(0);
+            if (!Arrays.equals(data.get(key), inv.getArgument(2))) {
+                return 0L;
+            }
+            data.put(key, inv.getArgument(3));
+            return 1L;
+        });
+        when(template.delete(anyString())).thenAnswer(inv -> data.remove((String) inv.getArgument(0)) != null);
+    }
+
+    private static String key(byte[] rawKey){
+        return new String(rawKey, StandardCharsets.UTF_8);
+    }
+}
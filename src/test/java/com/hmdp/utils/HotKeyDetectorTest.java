@@ -0,0 +1,83 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HotKeyDetectorTest {
+
+    private HotKeyDetector detector(int width, int slots, int threshold, int sampleOneIn) {
+        HotKeyDetector detector = new HotKeyDetector();
+        ReflectionTestUtils.setField(detector, "enabled", true);
+        ReflectionTestUtils.setField(detector, "width", width);
+        ReflectionTestUtils.setField(detector, "slots", slots);
+        ReflectionTestUtils.setField(detector, "threshold", threshold);
+        ReflectionTestUtils.setField(detector, "sampleOneIn", sampleOneIn);
+        ReflectionTestUtils.setField(detector, "capacity", 10);
+        ReflectionTestUtils.invokeMethod(detector, "init");
+        return detector;
+    }
+
+    @Test
+    void testKeyBecomesHotAtThreshold() {
+        HotKeyDetector detector = detector(1024, 3, 100, 1);
+        for (int i = 0; i < 99; i++) {
+            assertFalse(detector.record("cache:shop:1"));
+        }
+        assertTrue(detector.record("cache:shop:1"));
+        assertTrue(detector.isHot("cache:shop:1"));
+        assertFalse(detector.isHot("cache:shop:2"));
+    }
+
+    @Test
+    void testEstimateNeverUnderCounts() {
+        // 计数器很少，大量key会冲突，估计值只会偏高
+        HotKeyDetector detector = detector(16, 2, Integer.MAX_VALUE, 1);
+        for (int key = 0; key < 200; key++) {
+            for (int i = 0; i <= key % 7; i++) {
+                detector.record("k" + key);
+            }
+        }
+        for (int key = 0; key < 200; key++) {
+            int estimate = ReflectionTestUtils.invokeMethod(detector, "estimate", ("k" + key).hashCode());
+            assertTrue(estimate >= key % 7 + 1);
+        }
+    }
+
+    @Test
+    void testRotationExpiresKeyAfterWindow() {
+        HotKeyDetector detector = detector(1024, 3, 50, 1);
+        for (int i = 0; i < 60; i++) {
+            detector.record("cache:shop:1");
+        }
+        assertTrue(detector.isHot("cache:shop:1"));
+
+        // 窗口内还有计数，仍是热key
+        detector.rotate();
+        detector.rotate();
+        assertTrue(detector.isHot("cache:shop:1"));
+
+        // 记录访问的时间片被清空，移出热key
+        detector.rotate();
+        assertFalse(detector.isHot("cache:shop:1"));
+        assertTrue(detector.top(10).isEmpty());
+    }
+
+    @Test
+    void testSampledCountsAreScaled() {
+        HotKeyDetector detector = detector(1024, 2, 10000, 16);
+        for (int i = 0; i < 160000; i++) {
+            detector.record("cache:shop:1");
+        }
+        assertTrue(detector.isHot("cache:shop:1"));
+        List<HotKeyDetector.HotKey> top = detector.top(1);
+        assertEquals("cache:shop:1", top.get(0).getKey());
+        // 每次采样加16，估计值接近真实访问次数
+        int estimate = top.get(0).getEstimate();
+        assertEquals(0, estimate % 16);
+        assertTrue(Math.abs(estimate - 160000) < 160000 * 0.05, "estimate=" + estimate);
+    }
+}
@@ -0,0 +1,62 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongBloomFilterTest {
+
+    @Test
+    void testSizing() {
+        // m = -1000*ln(0.01)/(ln2)^2 ≈ 9586，按64位取整；k = m/n*ln2 ≈ 7
+        LongBloomFilter filter = new LongBloomFilter(1000, 0.01);
+        assertEquals(9600, filter.bitSize());
+        assertEquals(7, filter.hashCount());
+    }
+
+    @Test
+    void testNoFalseNegativesAndFalsePositiveRate() {
+        int n = 100000;
+        LongBloomFilter filter = new LongBloomFilter(n, 0.01);
+        for (long id = 1; id <= n; id++) {
+            filter.add(id);
+        }
+        for (long id = 1; id <= n; id++) {
+            assertTrue(filter.mightContain(id));
+        }
+        int falsePositives = 0;
+        for (long id = n + 1; id <= 2L * n; id++) {
+            if (filter.mightContain(id)) {
+                falsePositives++;
+            }
+        }
+        double rate = (double) falsePositives / n;
+        assertTrue(rate < 0.02, "误判率:" + rate);
+    }
+
+    @Test
+    void testConcurrentAdds() throws InterruptedException {
+        LongBloomFilter filter = new LongBloomFilter(40000, 0.01);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            long from = t * 10000L;
+            Thread thread = new Thread(() -> {
+                for (long id = from; id < from + 10000; id++) {
+                    filter.add(id);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // 同一个字上的并发CAS不会丢位
+        for (long id = 0; id < 40000; id++) {
+            assertTrue(filter.mightContain(id));
+        }
+    }
+}
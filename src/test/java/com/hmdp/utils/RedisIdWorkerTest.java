@@ -0,0 +1,107 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RedisIdWorkerTest {
+
+    private static final long STEP = 100;
+
+    // key -> 计数器，模拟 INCRBY
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final AtomicInteger incrByCalls = new AtomicInteger();
+    private RedisIdWorker idWorker;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        when(template.opsForValue()).thenReturn(ops);
+        when(ops.increment(anyString(), anyLong())).thenAnswer(inv -> {
+            incrByCalls.incrementAndGet();
+            return counters.computeIfAbsent(inv.getArgument(0), k -> new AtomicLong())
+                    .addAndGet(inv.getArgument(1));
+        });
+
+        idWorker = new RedisIdWorker();
+        ReflectionTestUtils.setField(idWorker, "stringRedisTemplate", template);
+        ReflectionTestUtils.setField(idWorker, "segmentEnabled", true);
+        ReflectionTestUtils.setField(idWorker, "segmentStep", STEP);
+    }
+
+    @Test
+    void testIdsFromOneSegmentAreSequential() {
+        long before = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) - 1640995200L;
+        long first = idWorker.nexId("order");
+        long second = idWorker.nexId("order");
+        long after = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) - 1640995200L;
+
+        // 低32位是序列号，从号段起点开始逐个发放
+        assertEquals(1, first & 0xFFFFFFFFL);
+        assertEquals(2, second & 0xFFFFFFFFL);
+        // 高位是时间戳，与原来的算法一致
+        long timestamp = first >>> 32;
+        assertTrue(timestamp >= before && timestamp <= after);
+        // 一天一个key
+        String date = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        assertEquals(STEP, counters.get("icr:order:" + date).get());
+        assertEquals(1, incrByCalls.get());
+    }
+
+    @Test
+    void testConcurrentIdsAreUniqueWithFewRedisCalls() throws Exception {
+        int threads = 8, perThread = 5000;
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    assertTrue(ids.add(idWorker.nexId("order")));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        int total = threads * perThread;
+        assertEquals(total, ids.size());
+        // 每 STEP 个id访问一次redis，预取可能多领一个号段
+        assertTrue(incrByCalls.get() <= total / STEP + 2, "INCRBY次数:" + incrByCalls.get());
+    }
+
+    @Test
+    void testPrefixesUseSeparateSegments() {
+        idWorker.nexId("order");
+        long other = idWorker.nexId("coupon");
+        assertEquals(1, other & 0xFFFFFFFFL);
+        assertEquals(2, counters.size());
+    }
+}
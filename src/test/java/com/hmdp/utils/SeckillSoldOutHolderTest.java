@@ -0,0 +1,60 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class SeckillSoldOutHolderTest {
+
+    private SeckillSoldOutHolder holder;
+
+    @BeforeEach
+    void setUp() {
+        holder = new SeckillSoldOutHolder();
+        ReflectionTestUtils.setField(holder, "ttlMillis", 200L);
+        ReflectionTestUtils.setField(holder, "stringRedisTemplate", mock(StringRedisTemplate.class));
+        ReflectionTestUtils.setField(holder, "listenerContainer", mock(RedisMessageListenerContainer.class));
+    }
+
+    @Test
+    void testSoldOutBeforeRestockIsIgnored() {
+        long observedAt = System.currentTimeMillis() - 10;
+        holder.reset(1L);
+        // 补货之前开始的请求判断出的售罄
+        holder.markSoldOut(1L, observedAt);
+        assertFalse(holder.isSoldOut(1L));
+        // 其它节点广播过来的过时标记同样忽略
+        holder.onMessage(message("1:1:" + observedAt), null);
+        assertFalse(holder.isSoldOut(1L));
+
+        holder.markSoldOut(1L, System.currentTimeMillis());
+        assertTrue(holder.isSoldOut(1L));
+    }
+
+    @Test
+    void testSoldOutExpires() throws InterruptedException {
+        holder.markSoldOut(2L, System.currentTimeMillis());
+        assertTrue(holder.isSoldOut(2L));
+        Thread.sleep(300);
+        assertFalse(holder.isSoldOut(2L));
+    }
+
+    @Test
+    void testResetMessageClearsMark() {
+        holder.markSoldOut(3L, System.currentTimeMillis());
+        holder.onMessage(message("0:3:" + (System.currentTimeMillis() + 1)), null);
+        assertFalse(holder.isSoldOut(3L));
+    }
+
+    private static DefaultMessage message(String body) {
+        return new DefaultMessage(new byte[0], body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,163 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ShopGeoIndexTest {
+
+    // 武汉附近
+    private static final double X = 114.30;
+    private static final double Y = 30.59;
+
+    private final List<BiConsumer<Long, Shop>> listeners = new ArrayList<>();
+    private ShopMapper shopMapper;
+    private ShopGeoIndex index;
+    private List<Shop> shops;
+
+    private static Shop shop(long id, long typeId, double x, double y) {
+        Shop shop = new Shop();
+        shop.setId(id);
+        shop.setTypeId(typeId);
+        shop.setX(x);
+        shop.setY(y);
+        return shop;
+    }
+
+    @BeforeEach
+    void setUp() {
+        Random random = new Random(42);
+        shops = new ArrayList<>();
+        for (long id = 1; id <= 2000; id++) {
+            shops.add(shop(id, id % 2 + 1, X + (random.nextDouble() - 0.5) * 0.2, Y + (random.nextDouble() - 0.5) * 0.2));
+        }
+        shopMapper = mock(ShopMapper.class);
+        when(shopMapper.selectList(any())).thenReturn(shops);
+        ShopChangeBroadcaster broadcaster = mock(ShopChangeBroadcaster.class);
+        doAnswer(inv -> listeners.add(inv.getArgument(0))).when(broadcaster).addListener(any());
+
+        index = new ShopGeoIndex();
+        ReflectionTestUtils.setField(index, "enabled", true);
+        ReflectionTestUtils.setField(index, "cellDegrees", 0.01);
+        ReflectionTestUtils.setField(index, "batchSize", 5000);
+        ReflectionTestUtils.setField(index, "shopMapper", shopMapper);
+        ReflectionTestUtils.setField(index, "shopChangeBroadcaster", broadcaster);
+        ReflectionTestUtils.invokeMethod(index, "init");
+        index.rebuild();
+    }
+
+    // 暴力计算：指定类型、半径内按距离升序的前 limit 个id
+    private List<Long> bruteForce(long typeId, double radius, int limit) {
+        return shops.stream()
+                .filter(shop -> shop.getTypeId() == typeId)
+                .filter(shop -> ShopGeoIndex.distance(X, Y, shop.getX(), shop.getY()) <= radius)
+                .sorted(Comparator.comparingDouble(shop -> ShopGeoIndex.distance(X, Y, shop.getX(), shop.getY())))
+                .limit(limit)
+                .map(Shop::getId)
+                .collect(Collectors.toList());
+    }
+
+    private static List<Long> ids(List<ShopGeoIndex.Hit> hits) {
+        return hits.stream().map(ShopGeoIndex.Hit::getId).collect(Collectors.toList());
+    }
+
+    @Test
+    void testDistanceMatchesGeoDist() {
+        // redis 文档中 GEODIST Sicily Palermo Catania 的结果，redis 存储坐标有 geohash 精度损失，允许1米误差
+        assertEquals(166274.1516, ShopGeoIndex.distance(13.361389, 38.115556, 15.087269, 37.502669), 1.0);
+        assertEquals(0.0, ShopGeoIndex.distance(X, Y, X, Y), 1e-9);
+    }
+
+    @Test
+    void testRadiusMatchesBruteForce() {
+        List<ShopGeoIndex.Hit> hits = index.radius(1L, X, Y, 3000, 50);
+        assertEquals(bruteForce(1L, 3000, 50), ids(hits));
+        for (int i = 1; i < hits.size(); i++) {
+            assertTrue(hits.get(i - 1).getDistance() <= hits.get(i).getDistance());
+        }
+        assertEquals(bruteForce(2L, 5000, Integer.MAX_VALUE), ids(index.radius(2L, X, Y, 5000, Integer.MAX_VALUE)));
+        assertTrue(index.radius(3L, X, Y, 5000, 10).isEmpty());
+    }
+
+    @Test
+    void testNearestMatchesBruteForce() {
+        assertEquals(bruteForce(1L, 100000, 10), ids(index.nearest(1L, X, Y, 10, 100000)));
+        assertEquals(bruteForce(2L, 100000, 1), ids(index.nearest(2L, X, Y, 1, 100000)));
+        // 最大半径内不足k个
+        assertEquals(bruteForce(1L, 200, 10), ids(index.nearest(1L, X, Y, 10, 200)));
+    }
+
+    @Test
+    void testRadiusAfterPagesWithoutGapsOrDuplicates() {
+        // 加两个与已有商铺距离完全相同的商铺，翻页边界落在同距离的商铺之间时也不能重复或遗漏
+        ShopGeoIndex.Hit first = index.radius(1L, X, Y, 3000, 1).get(0);
+        Shop twin = shops.stream().filter(shop -> shop.getId() == first.getId()).findFirst().get();
+        listeners.get(0).accept(5001L, shop(5001, 1, twin.getX(), twin.getY()));
+        listeners.get(0).accept(5003L, shop(5003, 1, twin.getX(), twin.getY()));
+
+        List<ShopGeoIndex.Hit> all = index.radius(1L, X, Y, 3000, Integer.MAX_VALUE);
+        List<ShopGeoIndex.Hit> paged = new ArrayList<>();
+        double afterDistance = -1;
+        long afterId = 0;
+        while (true) {
+            List<ShopGeoIndex.Hit> page = index.radiusAfter(1L, X, Y, 3000, afterDistance, afterId, 2);
+            if (page.isEmpty()) {
+                break;
+            }
+            paged.addAll(page);
+            afterDistance = page.get(page.size() - 1).getDistance();
+            afterId = page.get(page.size() - 1).getId();
+        }
+        assertEquals(ids(all), ids(paged));
+        // 同距离按id升序
+        assertEquals(first.getId(), all.get(0).getId());
+        assertEquals(5001L, all.get(1).getId());
+        assertEquals(5003L, all.get(2).getId());
+    }
+
+    @Test
+    void testIncrementalMoveAndDelete() {
+        BiConsumer<Long, Shop> listener = listeners.get(0);
+        listener.accept(1L, shop(1, 2, X, Y));
+        assertEquals(1L, index.nearest(2L, X, Y, 1, 1000).get(0).getId());
+        listener.accept(1L, null);
+        assertNotEquals(1L, index.nearest(2L, X, Y, 1, 1000).get(0).getId());
+    }
+
+    @Test
+    void testChangesDuringRebuildWin() {
+        // 分页读取期间商铺被删除、清空坐标：读到的旧数据不能把它们加回来
+        BiConsumer<Long, Shop> listener = listeners.get(0);
+        when(shopMapper.selectList(any())).thenAnswer(inv -> {
+            listener.accept(1L, null);
+            listener.accept(2L, shop(2, 1, 0, 0));
+            Shop cleared = new Shop();
+            cleared.setId(3L);
+            listener.accept(3L, cleared);
+            return shops;
+        });
+        index.rebuild();
+        List<Long> all = new ArrayList<>();
+        all.addAll(ids(index.radius(1L, X, Y, 100000, Integer.MAX_VALUE)));
+        all.addAll(ids(index.radius(2L, X, Y, 100000, Integer.MAX_VALUE)));
+        assertFalse(all.contains(1L));
+        assertFalse(all.contains(2L));
+        assertFalse(all.contains(3L));
+        assertEquals(2L, index.nearest(1L, 0, 0, 1, 10).get(0).getId());
+    }
+}
@@ -0,0 +1,91 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ShopNameIndexTest {
+
+    private ShopNameIndex index;
+    private final List<BiConsumer<Long, Shop>> listeners = new ArrayList<>();
+
+    private static Shop shop(long id, String name, int score, int sold) {
+        Shop shop = new Shop();
+        shop.setId(id);
+        shop.setName(name);
+        shop.setScore(score);
+        shop.setSold(sold);
+        return shop;
+    }
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        ShopMapper shopMapper = mock(ShopMapper.class);
+        when(shopMapper.selectList(any())).thenReturn(Arrays.asList(
+                shop(1, "103茶餐厅", 37, 4215),
+                shop(2, "蔡林记热干面", 47, 10000),
+                shop(3, "Cafe Latte", 45, 200),
+                shop(4, "茶颜悦色", 47, 20000),
+                shop(5, "CafeLatte", 45, 300),
+                shop(6, "喜茶", 47, 20000)
+        ));
+        ShopChangeBroadcaster broadcaster = mock(ShopChangeBroadcaster.class);
+        doAnswer(inv -> listeners.add(inv.getArgument(0))).when(broadcaster).addListener(any());
+
+        index = new ShopNameIndex();
+        ReflectionTestUtils.setField(index, "enabled", true);
+        ReflectionTestUtils.setField(index, "batchSize", 1000);
+        ReflectionTestUtils.setField(index, "shopMapper", shopMapper);
+        ReflectionTestUtils.setField(index, "shopChangeBroadcaster", broadcaster);
+        ReflectionTestUtils.invokeMethod(index, "init");
+        index.rebuild();
+    }
+
+    @Test
+    void testSearchRanksByScoreSoldThenId() {
+        assertTrue(index.isReady());
+        // 评分相同按销量，评分销量都相同按id
+        assertEquals(Arrays.asList(4L, 6L, 1L), index.search("茶", 0, 10));
+        assertEquals(Collections.singletonList(2L), index.search("热干", 0, 10));
+        assertTrue(index.search("奶茶", 0, 10).isEmpty());
+    }
+
+    @Test
+    void testSearchPaging() {
+        assertEquals(Collections.singletonList(4L), index.search("茶", 0, 1));
+        assertEquals(Collections.singletonList(6L), index.search("茶", 1, 1));
+        assertEquals(Arrays.asList(6L, 1L), index.search("茶", 1, 5));
+        assertTrue(index.search("茶", 3, 5).isEmpty());
+    }
+
+    @Test
+    void testWhitespaceIsKeptAndCaseIgnored() {
+        assertEquals(Collections.singletonList(3L), index.search("e l", 0, 10));
+        assertEquals(Collections.singletonList(5L), index.search("EL", 0, 10));
+        assertEquals(Arrays.asList(5L, 3L), index.search("cafe", 0, 10));
+    }
+
+    @Test
+    void testChangesAreAppliedIncrementally() {
+        BiConsumer<Long, Shop> listener = listeners.get(0);
+        listener.accept(7L, shop(7, "茶百道", 50, 1));
+        listener.accept(4L, null);
+        listener.accept(1L, shop(1, "103餐厅", 37, 4215));
+        assertEquals(Arrays.asList(7L, 6L), index.search("茶", 0, 10));
+    }
+}